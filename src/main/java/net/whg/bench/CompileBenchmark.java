@@ -0,0 +1,114 @@
+package net.whg.bench;
+
+import net.whg.graph.DataType;
+import net.whg.graph.Graph;
+import net.whg.graph.Move;
+import net.whg.graph.NodeType;
+import net.whg.impl.libs.Arithmetic;
+import net.whg.solver.Environment;
+
+/**
+ * Compares the speed of {@link Graph#execute(Object[], Object[])} on the
+ * execution plan of a graph against the same graph once it has been compiled
+ * into JVM bytecode. The graph is a fixed arithmetic expression of two float
+ * inputs with 11 arithmetic nodes.
+ * <p>
+ * Usage: {@code CompileBenchmark [executionsPerRound] [rounds]}
+ */
+public final class CompileBenchmark {
+    /**
+     * An expression to build a graph from. Leaves read an output of the input
+     * node, and every other expression adds a new node.
+     */
+    private record Expression(NodeType type, int input, Expression... args) {
+    }
+
+    private CompileBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        var executions = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        var rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        var env = new Environment();
+        env.loadLibrary(new Arithmetic());
+
+        var floatType = env.getDataType("Float");
+        env.addNodeType(new NodeType("Input", null, new DataType[0], new DataType[] { floatType, floatType }));
+        env.addNodeType(new NodeType("Output", null, new DataType[] { floatType }, new DataType[0]));
+
+        var add = find(env, "Add", floatType);
+        var subtract = find(env, "Subtract", floatType);
+        var multiply = find(env, "Multiply", floatType);
+        var divide = find(env, "Divide", floatType);
+        var squareRoot = find(env, "SquareRoot", floatType);
+        var x = new Expression(null, 0);
+        var y = new Expression(null, 1);
+
+        // ((x + y) * (x - y) + x * x * y) / (y * y + sqrt(x * x))
+        var expression = e(divide,
+                e(add, e(multiply, e(add, x, y), e(subtract, x, y)), e(multiply, e(multiply, x, x), y)),
+                e(add, e(multiply, y, y), e(squareRoot, e(multiply, x, x))));
+
+        var interpreted = build(env, expression);
+        var compiled = build(env, expression);
+        var inputs = new Object[] { 3f, 4f };
+        var outputs = new Object[1];
+
+        Graph.setCompileThreshold(1);
+        compiled.execute(inputs, outputs);
+        Graph.setCompileThreshold(0);
+
+        System.out.printf("nodes=%d result=%s%n", compiled.getNodeCount(), outputs[0]);
+        for (var round = 0; round < rounds; round++) {
+            var plan = measure(interpreted, inputs, executions);
+            var jit = measure(compiled, inputs, executions);
+            System.out.printf("round=%d plan=%.1fns compiled=%.1fns speedup=%.2fx%n", round, plan, jit, plan / jit);
+        }
+    }
+
+    private static double measure(Graph graph, Object[] inputs, int executions) {
+        var outputs = new Object[1];
+        var start = System.nanoTime();
+
+        for (var i = 0; i < executions; i++)
+            graph.execute(inputs, outputs);
+
+        return (System.nanoTime() - start) / (double) executions;
+    }
+
+    private static Expression e(NodeType type, Expression... args) {
+        return new Expression(type, -1, args);
+    }
+
+    private static NodeType find(Environment env, String name, DataType output) {
+        for (var type : env.getNodeTypes()) {
+            if (type.getName().equals(name) && type.getOutputCount() == 1 && type.getOutput(0) == output)
+                return type;
+        }
+
+        throw new IllegalArgumentException("Unknown node type: " + name + "!");
+    }
+
+    private static Graph build(Environment env, Expression expression) {
+        var graph = new Graph("Benchmark", env.getInputNodeType(), env.getOutputNodeType());
+        return fill(graph, 0, 0, expression);
+    }
+
+    /**
+     * Connects an input argument to the given expression. Input arguments are
+     * filled depth first, in the same order the search fills them.
+     */
+    private static Graph fill(Graph graph, int node, int index, Expression expression) {
+        if (expression.type() == null)
+            return graph.applyMove(new Move(node, index, 1, expression.input(), null));
+
+        var added = graph.getNodeCount();
+        graph = graph.applyMove(new Move(node, index, added, 0, expression.type()));
+
+        for (var i = 0; i < expression.args().length; i++)
+            graph = fill(graph, added, i, expression.args()[i]);
+
+        return graph;
+    }
+}
@@ -0,0 +1,97 @@
+package net.whg.bench;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.whg.graph.DataType;
+import net.whg.graph.Graph;
+import net.whg.graph.NodeType;
+import net.whg.impl.axioms.MaxConnectionsAxiom;
+import net.whg.impl.heuristics.ConnectionCountHeuristic;
+import net.whg.impl.libs.Arithmetic;
+import net.whg.solver.Environment;
+import net.whg.solver.Tree;
+import net.whg.solver.Worker;
+
+/**
+ * Measures the size of an exhaustive search over the arithmetic library, with
+ * two inputs and one output of the same data type. Every solution is run on a
+ * fixed set of sample inputs, and the number of distinct output vectors is
+ * reported along with the number of expansions and solutions, so changes that
+ * shrink the search can be checked for lost functions. Running the search with
+ * and without the algebraic properties of the node types shows how much of the
+ * search they remove.
+ * <p>
+ * Usage:
+ * {@code SearchBenchmark <maxConnections> [transpositionTableSize] [declareProperties] [Float|Integer]}
+ */
+public final class SearchBenchmark {
+    private static final float[][] SAMPLES = { { 0.5f, 2f }, { -1.5f, 3f }, { 2.25f, -0.75f }, { 7f, 1.25f },
+            { -3f, -2.5f }, { 0f, 4f }, { 1f, 1f }, { 5.5f, 0.5f } };
+
+    private SearchBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1)
+            throw new IllegalArgumentException("Usage: SearchBenchmark <maxConnections> [transpositionTableSize] "
+                    + "[declareProperties] [Float|Integer]");
+
+        var maxConnections = Integer.parseInt(args[0]);
+        var tableSize = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        var declareProperties = args.length <= 2 || Boolean.parseBoolean(args[2]);
+        var integers = args.length > 3 && args[3].equals("Integer");
+
+        var functions = ConcurrentHashMap.<Long>newKeySet();
+        var env = new Environment();
+        env.loadLibrary(new Arithmetic(declareProperties));
+
+        var dataType = env.getDataType(integers ? "Integer" : "Float");
+        env.addNodeType(new NodeType("Input", null, new DataType[0], new DataType[] { dataType, dataType }));
+        env.addNodeType(new NodeType("Output", null, new DataType[] { dataType }, new DataType[0]));
+        env.addAxiom(new MaxConnectionsAxiom(maxConnections));
+        env.addHeuristic(new ConnectionCountHeuristic(-1f));
+        env.addFitnessEvaluator(graph -> {
+            functions.add(fingerprint(graph, integers));
+            return 0f;
+        });
+
+        var tree = new Tree("Benchmark", env, tableSize);
+        var worker = new Worker(tree);
+
+        var start = System.nanoTime();
+        while (tree.getNumOpenGraphs() > 0)
+            worker.step();
+
+        var millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf(
+                "maxConnections=%d type=%s properties=%b expansions=%d solutions=%d functions=%d "
+                        + "transpositionHits=%d ms=%d%n",
+                maxConnections, dataType.getName(), declareProperties, tree.getNumGraphsProcessed(),
+                tree.getNumSolutionsFound(), functions.size(), tree.getTranspositionHits(), millis);
+    }
+
+    /**
+     * Hashes the outputs of a graph over the sample inputs. The lowest bits of
+     * each output are dropped, so graphs that only differ by rounding share a
+     * fingerprint. For integer inputs, the samples are rounded to the nearest
+     * integer.
+     */
+    private static long fingerprint(Graph graph, boolean integers) {
+        var hash = 17L;
+        var outputs = new Object[1];
+
+        for (var sample : SAMPLES) {
+            try {
+                var inputs = integers ? new Object[] { Math.round(sample[0]), Math.round(sample[1]) }
+                        : new Object[] { sample[0], sample[1] };
+                graph.execute(inputs, outputs);
+                var value = ((Number) outputs[0]).floatValue();
+                hash = hash * 31 + (Float.floatToIntBits(value) & ~0xFF);
+            } catch (RuntimeException e) {
+                hash = hash * 31 + 1;
+            }
+        }
+
+        return hash;
+    }
+}
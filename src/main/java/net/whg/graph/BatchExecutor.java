@@ -0,0 +1,25 @@
+package net.whg.graph;
+
+/**
+ * A function that preforms the same calculation as an {@link Executor}, but
+ * over a whole column of rows at once. Each input and output argument is
+ * represented as a column array with one element per row. Columns of float
+ * values are stored as float[], columns of integer values as int[], and all
+ * other columns as Object[]. See {@link Columns} for utilities to read columns
+ * of any representation.
+ */
+public interface BatchExecutor {
+    /**
+     * Preforms the calculation for every row. This function should produce the
+     * same results as calling the scalar executor once per row, and should be
+     * thread safe as this can be called from any thread. Input columns must not
+     * be modified.
+     * 
+     * @param inputs  - The input columns, one for each input argument.
+     * @param outputs - The array to store the output columns in, one for each
+     *                output argument. Output columns are allocated by this
+     *                function.
+     * @param rows    - The number of rows to process.
+     */
+    void execute(Object[] inputs, Object[] outputs, int rows);
+}
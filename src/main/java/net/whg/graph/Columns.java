@@ -0,0 +1,102 @@
+package net.whg.graph;
+
+/**
+ * Utility functions for working with the column arrays used by batch execution.
+ * A column is either a float[], an int[], or an Object[] with one element per
+ * row.
+ */
+public final class Columns {
+    private Columns() {
+    }
+
+    /**
+     * Reads a column as float values. Float columns are returned as-is, integer
+     * columns are widened, and object columns are unboxed.
+     * 
+     * @param column - The column to read.
+     * @param rows   - The number of rows in the column.
+     * @return The float column. This may be the same array as the input column
+     *         and must not be modified.
+     */
+    public static float[] floats(Object column, int rows) {
+        if (column instanceof float[] floats)
+            return floats;
+
+        var result = new float[rows];
+        if (column instanceof int[] ints) {
+            for (var i = 0; i < rows; i++)
+                result[i] = ints[i];
+        } else {
+            var objects = (Object[]) column;
+            for (var i = 0; i < rows; i++)
+                result[i] = PrimitiveExecutor.toFloat(objects[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads a column as integer values. Integer columns are returned as-is and
+     * object columns are unboxed.
+     * 
+     * @param column - The column to read.
+     * @param rows   - The number of rows in the column.
+     * @return The integer column. This may be the same array as the input column
+     *         and must not be modified.
+     */
+    public static int[] ints(Object column, int rows) {
+        if (column instanceof int[] ints)
+            return ints;
+
+        var result = new int[rows];
+        var objects = (Object[]) column;
+        for (var i = 0; i < rows; i++)
+            result[i] = PrimitiveExecutor.toInt(objects[i]);
+
+        return result;
+    }
+
+    /**
+     * Gets the boxed value of a single row in a column.
+     * 
+     * @param column - The column to read.
+     * @param row    - The row index.
+     * @return The value.
+     */
+    public static Object get(Object column, int row) {
+        if (column instanceof float[] floats)
+            return floats[row];
+
+        if (column instanceof int[] ints)
+            return ints[row];
+
+        return ((Object[]) column)[row];
+    }
+
+    /**
+     * Converts a column of boxed values into a float or integer column if every
+     * row is of that type.
+     * 
+     * @param column - The column of boxed values.
+     * @param rows   - The number of rows in the column.
+     * @return The primitive column, or the same column if it could not be
+     *         converted.
+     */
+    public static Object compact(Object[] column, int rows) {
+        var allFloats = true;
+        var allInts = true;
+
+        for (var i = 0; i < rows; i++) {
+            allFloats &= column[i] instanceof Float;
+            allInts &= column[i] instanceof Integer;
+        }
+
+        if (rows > 0 && allFloats)
+            return floats(column, rows);
+
+        if (rows > 0 && allInts)
+            return ints(column, rows);
+
+        return column;
+    }
+}
@@ -0,0 +1,16 @@
+package net.whg.graph;
+
+/**
+ * A graph that has been compiled into JVM bytecode. Implementations are
+ * generated at runtime by the {@link GraphCompiler}.
+ */
+interface CompiledGraph {
+    /**
+     * Executes the compiled graph.
+     * 
+     * @param inputs  - The values to pass out of the input node.
+     * @param outputs - The array to write the values passed into the output node
+     *                into.
+     */
+    void execute(Object[] inputs, Object[] outputs);
+}
@@ -5,31 +5,55 @@ import java.util.UUID;
 /**
  * Represents a connection showing how data should move from one node to another
  * node within a graph. The connection is represented as moving from an output
- * argument of node A to an input argument of node B.
+ * argument of node A to an input argument of node B. Connection instances are
+ * lightweight views over the compact storage of a graph and are only created
+ * when requested.
  */
 public class Connection {
     private final Node nodeA;
     private final Node nodeB;
     private final int aIndex;
     private final int bIndex;
-    private final UUID uuid;
+    private final int index;
+    private final long lineage;
 
     /**
      * Creates a new Connection instance between two nodes and their respective
-     * input and output argument indices.
+     * input and output argument indices, that does not belong to any graph. The
+     * connection gets an index of -1 and a UUID that is unique within this run.
      * 
      * @param nodeA  - The node that the connection is moving out of.
      * @param aIndex - The output argument index of node A.
      * @param nodeB  - The node that the connection is moving in to.
      * @param bIndex - The input argument index of node B.
+     * @deprecated Connections are views over the compact storage of a graph. Use
+     *             {@link Graph#getAllConnections()} to get the connections of a
+     *             graph instead.
      */
+    @Deprecated
     public Connection(Node nodeA, int aIndex, Node nodeB, int bIndex) {
+        this(nodeA, aIndex, nodeB, bIndex, -1, Graph.nextLineageId());
+    }
+
+    /**
+     * Creates a new Connection instance between two nodes and their respective
+     * input and output argument indices.
+     * 
+     * @param nodeA   - The node that the connection is moving out of.
+     * @param aIndex  - The output argument index of node A.
+     * @param nodeB   - The node that the connection is moving in to.
+     * @param bIndex  - The input argument index of node B.
+     * @param index   - The index of this connection within the graph.
+     * @param lineage - The identifier of the base graph this connection descends
+     *                from.
+     */
+    Connection(Node nodeA, int aIndex, Node nodeB, int bIndex, int index, long lineage) {
         this.nodeA = nodeA;
         this.nodeB = nodeB;
         this.aIndex = aIndex;
         this.bIndex = bIndex;
-
-        uuid = UUID.randomUUID();
+        this.index = index;
+        this.lineage = lineage;
     }
 
     /**
@@ -69,11 +93,24 @@ public class Connection {
     }
 
     /**
-     * Gets the UUID of this connection instance.
+     * Gets the index of this connection within the graph. Connections are indexed
+     * in the order they were added.
+     * 
+     * @return The connection index, or -1 if this connection does not belong to a
+     *         graph.
+     */
+    public int index() {
+        return index;
+    }
+
+    /**
+     * Gets the UUID of this connection instance. The UUID is derived from the base
+     * graph and the connection index, so the same connection within a parent graph
+     * and any of its child graphs shares the same UUID.
      * 
      * @return The UUID.
      */
     public UUID uuid() {
-        return uuid;
+        return new UUID(lineage, ~index);
     }
 }
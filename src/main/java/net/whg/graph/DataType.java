@@ -1,14 +1,23 @@
 package net.whg.graph;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
- * Represents a data type that can be used within the node type.
+ * Represents a data type that can be used within the node type. Once all data
+ * types of an environment are set up, they can be frozen into a precomputed
+ * subtype matrix, which turns {@link #isInstanceOf(DataType)} into a single bit
+ * test.
  */
 public final class DataType {
     private final String name;
     private final List<DataType> parents = new ArrayList<>();
+    private Object lattice;
+    private int index;
+    private long[] supertypes;
 
     /**
      * Creates a new DataType instance.
@@ -28,8 +37,12 @@ public final class DataType {
      * @throws IllegalArgumentException If adding the requested data type as a
      *                                  parent would cause a circular dependency to
      *                                  occur.
+     * @throws IllegalStateException    If this data type has been frozen.
      */
     public void addParentType(DataType parent) {
+        if (isFrozen())
+            throw new IllegalStateException("Cannot add parent types to a frozen data type!");
+
         if (this.parents.contains(parent))
             return;
 
@@ -83,6 +96,9 @@ public final class DataType {
         if (this == other)
             return true;
 
+        if (lattice != null && lattice == other.lattice)
+            return (supertypes[other.index >>> 6] & (1L << other.index)) != 0;
+
         for (var parent : parents) {
             if (parent.isInstanceOf(other))
                 return true;
@@ -90,4 +106,67 @@ public final class DataType {
 
         return false;
     }
+
+    /**
+     * Checks whether or not this data type has been frozen.
+     * 
+     * @return True if this data type is part of a frozen subtype matrix.
+     */
+    public boolean isFrozen() {
+        return lattice != null;
+    }
+
+    /**
+     * Freezes a set of data types into a shared subtype matrix. Each data type is
+     * given an index and a bitset of every data type it is an instance of, so
+     * checking whether one frozen data type is an instance of another only takes
+     * a single bit test. Parent types that are not in the given list are frozen
+     * along with it. Frozen data types can no longer have parent types added.
+     * <p>
+     * This function is not thread safe, and should be called before the data
+     * types are shared with any other threads.
+     * 
+     * @param dataTypes - The data types to freeze.
+     * @throws IllegalStateException If any of the data types, or their parent
+     *                               types, have already been frozen.
+     */
+    public static void freeze(List<DataType> dataTypes) {
+        var types = new ArrayList<DataType>();
+        var seen = Collections.newSetFromMap(new IdentityHashMap<DataType, Boolean>());
+
+        for (var dataType : dataTypes)
+            collect(dataType, types, seen);
+
+        for (var type : types) {
+            if (type.isFrozen())
+                throw new IllegalStateException("Data type " + type.name + " is already frozen!");
+        }
+
+        var words = (types.size() + 63) >>> 6;
+        var matrix = new long[types.size()][words];
+        for (var i = 0; i < types.size(); i++) {
+            for (var j = 0; j < types.size(); j++) {
+                if (types.get(i).isInstanceOf(types.get(j)))
+                    matrix[i][j >>> 6] |= 1L << j;
+            }
+        }
+
+        var lattice = new Object();
+        for (var i = 0; i < types.size(); i++) {
+            var type = types.get(i);
+            type.index = i;
+            type.supertypes = matrix[i];
+            type.lattice = lattice;
+        }
+    }
+
+    private static void collect(DataType type, List<DataType> types, Set<DataType> seen) {
+        if (!seen.add(type))
+            return;
+
+        types.add(type);
+
+        for (var parent : type.parents)
+            collect(parent, types, seen);
+    }
 }
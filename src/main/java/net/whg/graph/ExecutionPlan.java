@@ -0,0 +1,672 @@
+package net.whg.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A compiled form of a complete graph that can be executed repeatedly without
+ * allocating. Nodes are sorted topologically into a flat instruction list, and
+ * every output argument of every node is given a fixed index in a single value
+ * array. Input arguments of an instruction are stored as indices into that
+ * array, so executing the plan is a single pass over the instructions.
+ * <p>
+ * Instructions for node types with a {@link PrimitiveExecutor} call it directly
+ * and store their result in a primitive value slot instead of the object value
+ * array. Values are only boxed when they are passed into a generic executor or
+ * returned from the plan.
+ * <p>
+ * Every instruction also knows the hash of its cone, which covers its node type
+ * and, recursively, every instruction and output index feeding into it. This
+ * lets a {@link SubexpressionCache} share node outputs between different graphs
+ * that contain the same subexpression.
+ */
+final class ExecutionPlan {
+    static final byte OBJECT_VALUE = 0;
+    static final byte FLOAT_VALUE = 1;
+    static final byte INT_VALUE = 2;
+
+    private static final byte GENERIC = 0;
+    private static final byte FLOAT_UNARY = 1;
+    private static final byte FLOAT_BINARY = 2;
+    private static final byte FLOAT_TO_INT = 3;
+    private static final byte INT_BINARY = 4;
+
+    private static final byte SKIPPED = 0;
+    private static final byte NEEDED = 1;
+    private static final byte CACHED = 2;
+
+    /**
+     * The scratch memory used while executing a plan. A frame is only ever used
+     * by one thread at a time.
+     */
+    private static final class Frame {
+        private final Object[] values;
+        private final float[] floats;
+        private final int[] ints;
+        private final Object[][] inputs;
+        private final Object[][] outputs;
+        private final byte[] states;
+
+        private Frame(ExecutionPlan plan) {
+            values = new Object[plan.valueCount];
+            floats = new float[plan.valueCount];
+            ints = new int[plan.valueCount];
+            inputs = new Object[plan.executors.length][];
+            outputs = new Object[plan.executors.length][];
+            states = new byte[plan.executors.length];
+
+            for (var i = 0; i < plan.executors.length; i++) {
+                inputs[i] = new Object[plan.inputOffsets[i + 1] - plan.inputOffsets[i]];
+                outputs[i] = new Object[plan.outputCounts[i]];
+            }
+        }
+    }
+
+    private final int inputCount;
+    private final int valueCount;
+    private final Executor[] executors;
+    private final PrimitiveExecutor[] primitiveExecutors;
+    private final BatchExecutor[] batchExecutors;
+    private final byte[] opcodes;
+    private final byte[] valueKinds;
+    private final int[] inputOffsets;
+    private final int[] inputValues;
+    private final int[] outputOffsets;
+    private final int[] outputCounts;
+    private final int[] resultValues;
+    private final long[] coneHashes;
+    private final int[] coneSizes;
+    private final int[] producers;
+    private final AtomicReference<Frame> spareFrame = new AtomicReference<>();
+
+    private ExecutionPlan(int inputCount, int valueCount, Executor[] executors,
+            PrimitiveExecutor[] primitiveExecutors, BatchExecutor[] batchExecutors, byte[] opcodes, byte[] valueKinds,
+            int[] inputOffsets, int[] inputValues, int[] outputOffsets, int[] outputCounts, int[] resultValues,
+            long[] coneHashes, int[] coneSizes, int[] producers) {
+        this.inputCount = inputCount;
+        this.valueCount = valueCount;
+        this.executors = executors;
+        this.primitiveExecutors = primitiveExecutors;
+        this.batchExecutors = batchExecutors;
+        this.opcodes = opcodes;
+        this.valueKinds = valueKinds;
+        this.inputOffsets = inputOffsets;
+        this.inputValues = inputValues;
+        this.outputOffsets = outputOffsets;
+        this.outputCounts = outputCounts;
+        this.resultValues = resultValues;
+        this.coneHashes = coneHashes;
+        this.coneSizes = coneSizes;
+        this.producers = producers;
+    }
+
+    /**
+     * Compiles an execution plan for the given node of a graph. Only the nodes
+     * the given node depends on are included in the plan. The results of the plan
+     * are the values passed into the input arguments of the given node.
+     * 
+     * @param data - The graph to compile.
+     * @param root - The node to compile the plan for.
+     * @return The new execution plan.
+     * @throws IllegalStateException If any node that the root node depends on has
+     *                               an input argument that is not connected.
+     */
+    static ExecutionPlan compile(GraphData data, int root) {
+        return compile(data, root, false);
+    }
+
+    /**
+     * Compiles an execution plan for the given node of a graph. Only the nodes
+     * the given node depends on are included in the plan.
+     * 
+     * @param data        - The graph to compile.
+     * @param root        - The node to compile the plan for.
+     * @param includeRoot - If true, the root node is executed as the last
+     *                    instruction and the results of the plan are its output
+     *                    values. If false, the results of the plan are the values
+     *                    passed into the input arguments of the root node.
+     * @return The new execution plan.
+     * @throws IllegalStateException If the root node, or any node that it depends
+     *                               on, has an input argument that is not
+     *                               connected.
+     */
+    static ExecutionPlan compile(GraphData data, int root, boolean includeRoot) {
+        var nodeCount = data.nodeCount();
+        var inputNodeType = data.nodeType(1);
+
+        var order = new int[nodeCount];
+        var orderSize = 0;
+        var visited = new boolean[nodeCount];
+        var stack = new int[nodeCount];
+        var stackSlots = new int[nodeCount];
+        var stackSize = 0;
+
+        visited[1] = true;
+        visited[root] = true;
+
+        for (var slot = 0; slot < data.nodeType(root).getInputCount(); slot++) {
+            var source = sourceNode(data, root, slot);
+            if (visited[source])
+                continue;
+
+            visited[source] = true;
+            stack[0] = source;
+            stackSlots[0] = 0;
+            stackSize = 1;
+
+            while (stackSize > 0) {
+                var node = stack[stackSize - 1];
+                var next = stackSlots[stackSize - 1]++;
+
+                if (next < data.nodeType(node).getInputCount()) {
+                    var input = sourceNode(data, node, next);
+                    if (!visited[input]) {
+                        visited[input] = true;
+                        stack[stackSize] = input;
+                        stackSlots[stackSize] = 0;
+                        stackSize++;
+                    }
+                } else {
+                    order[orderSize++] = node;
+                    stackSize--;
+                }
+            }
+        }
+
+        if (includeRoot)
+            order[orderSize++] = root;
+
+        var outputOffsetOf = new int[nodeCount];
+        var valueCount = inputNodeType.getOutputCount();
+        outputOffsetOf[1] = 0;
+
+        var inputSlotCount = 0;
+        for (var i = 0; i < orderSize; i++) {
+            var type = data.nodeType(order[i]);
+            outputOffsetOf[order[i]] = valueCount;
+            valueCount += type.getOutputCount();
+            inputSlotCount += type.getInputCount();
+        }
+
+        var executors = new Executor[orderSize];
+        var primitiveExecutors = new PrimitiveExecutor[orderSize];
+        var batchExecutors = new BatchExecutor[orderSize];
+        var opcodes = new byte[orderSize];
+        var valueKinds = new byte[valueCount];
+        var coneHashes = new long[orderSize];
+        var coneSizes = new int[orderSize];
+        var producers = new int[valueCount];
+        Arrays.fill(producers, 0, inputNodeType.getOutputCount(), -1);
+
+        var coneHashOf = new long[nodeCount];
+        var coneSizeOf = new int[nodeCount];
+        var inputOffsets = new int[orderSize + 1];
+        var inputValues = new int[inputSlotCount];
+        var outputOffsets = new int[orderSize];
+        var outputCounts = new int[orderSize];
+
+        for (var i = 0; i < orderSize; i++) {
+            var node = order[i];
+            var type = data.nodeType(node);
+
+            executors[i] = type.getExecutor();
+            batchExecutors[i] = type.getBatchExecutor();
+            opcodes[i] = opcode(type.getPrimitiveExecutor());
+
+            if (opcodes[i] != GENERIC) {
+                primitiveExecutors[i] = type.getPrimitiveExecutor();
+                valueKinds[outputOffsetOf[node]] = opcodes[i] == FLOAT_UNARY || opcodes[i] == FLOAT_BINARY
+                        ? FLOAT_VALUE
+                        : INT_VALUE;
+            }
+
+            outputOffsets[i] = outputOffsetOf[node];
+            outputCounts[i] = type.getOutputCount();
+            inputOffsets[i + 1] = inputOffsets[i] + type.getInputCount();
+
+            var coneSize = 1;
+            for (var slot = 0; slot < type.getInputCount(); slot++) {
+                inputValues[inputOffsets[i] + slot] = valueIndex(data, node, slot, outputOffsetOf);
+                coneSize = Math.min(coneSize + coneSizeOf[sourceNode(data, node, slot)], Integer.MAX_VALUE / 2);
+            }
+
+            coneSizeOf[node] = coneSize;
+            coneHashes[i] = data.coneHash(node, coneHashOf);
+            coneSizes[i] = coneSize;
+
+            for (var k = 0; k < type.getOutputCount(); k++)
+                producers[outputOffsets[i] + k] = i;
+        }
+
+        var rootType = data.nodeType(root);
+        int[] resultValues;
+        if (includeRoot) {
+            resultValues = new int[rootType.getOutputCount()];
+            for (var k = 0; k < resultValues.length; k++)
+                resultValues[k] = outputOffsetOf[root] + k;
+        } else {
+            resultValues = new int[rootType.getInputCount()];
+            for (var slot = 0; slot < resultValues.length; slot++)
+                resultValues[slot] = valueIndex(data, root, slot, outputOffsetOf);
+        }
+
+        return new ExecutionPlan(inputNodeType.getOutputCount(), valueCount, executors, primitiveExecutors,
+                batchExecutors, opcodes, valueKinds, inputOffsets, inputValues, outputOffsets, outputCounts,
+                resultValues, coneHashes, coneSizes, producers);
+    }
+
+    private static byte opcode(PrimitiveExecutor executor) {
+        if (executor instanceof FloatUnaryExecutor)
+            return FLOAT_UNARY;
+
+        if (executor instanceof FloatBinaryExecutor)
+            return FLOAT_BINARY;
+
+        if (executor instanceof FloatToIntExecutor)
+            return FLOAT_TO_INT;
+
+        if (executor instanceof IntBinaryExecutor)
+            return INT_BINARY;
+
+        return GENERIC;
+    }
+
+    private static int sourceNode(GraphData data, int node, int slot) {
+        var connection = data.inputConnection(node, slot);
+        if (connection == -1)
+            throw new IllegalStateException("Graph is not complete!");
+
+        return data.nodeA(connection);
+    }
+
+    private static int valueIndex(GraphData data, int node, int slot, int[] outputOffsetOf) {
+        var connection = data.inputConnection(node, slot);
+        return outputOffsetOf[data.nodeA(connection)] + data.aIndex(connection);
+    }
+
+    /**
+     * Gets the number of values this plan expects as inputs.
+     * 
+     * @return The number of inputs.
+     */
+    int getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * Gets the number of values this plan produces as outputs.
+     * 
+     * @return The number of outputs.
+     */
+    int getOutputCount() {
+        return resultValues.length;
+    }
+
+    /**
+     * Gets the number of values stored in the value array of this plan, including
+     * the input values.
+     * 
+     * @return The number of values.
+     */
+    int getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * Gets the number of instructions in this plan.
+     * 
+     * @return The number of instructions.
+     */
+    int getInstructionCount() {
+        return executors.length;
+    }
+
+    /**
+     * Gets the executor called by an instruction.
+     * 
+     * @param instruction - The instruction index.
+     * @return The executor.
+     */
+    Executor getExecutor(int instruction) {
+        return executors[instruction];
+    }
+
+    /**
+     * Gets the primitive executor called by an instruction.
+     * 
+     * @param instruction - The instruction index.
+     * @return The primitive executor, or null if the instruction calls its
+     *         generic executor.
+     */
+    PrimitiveExecutor getPrimitiveExecutor(int instruction) {
+        return primitiveExecutors[instruction];
+    }
+
+    /**
+     * Gets how a value is stored while executing this plan.
+     * 
+     * @param value - The value index.
+     * @return {@link #FLOAT_VALUE} or {@link #INT_VALUE} if the value is stored
+     *         unboxed, or {@link #OBJECT_VALUE} otherwise.
+     */
+    byte getValueKind(int value) {
+        return valueKinds[value];
+    }
+
+    /**
+     * Gets the number of input arguments of an instruction.
+     * 
+     * @param instruction - The instruction index.
+     * @return The number of input arguments.
+     */
+    int getInputCount(int instruction) {
+        return inputOffsets[instruction + 1] - inputOffsets[instruction];
+    }
+
+    /**
+     * Gets the index of the value passed into an input argument of an
+     * instruction.
+     * 
+     * @param instruction - The instruction index.
+     * @param slot        - The input argument index.
+     * @return The value index.
+     */
+    int getInputValue(int instruction, int slot) {
+        return inputValues[inputOffsets[instruction] + slot];
+    }
+
+    /**
+     * Gets the number of output arguments of an instruction.
+     * 
+     * @param instruction - The instruction index.
+     * @return The number of output arguments.
+     */
+    int getOutputCount(int instruction) {
+        return outputCounts[instruction];
+    }
+
+    /**
+     * Gets the index of the value the first output argument of an instruction is
+     * written to. The remaining output arguments follow it directly.
+     * 
+     * @param instruction - The instruction index.
+     * @return The value index.
+     */
+    int getOutputValue(int instruction) {
+        return outputOffsets[instruction];
+    }
+
+    /**
+     * Gets the index of the value returned as an output of this plan.
+     * 
+     * @param output - The output index.
+     * @return The value index.
+     */
+    int getResultValue(int output) {
+        return resultValues[output];
+    }
+
+    /**
+     * Executes this plan. This function does not allocate, other than what the
+     * node executors allocate themselves, and may be called from any thread.
+     * 
+     * @param inputs  - The input values.
+     * @param outputs - The array to write the output values into.
+     */
+    void execute(Object[] inputs, Object[] outputs) {
+        var frame = spareFrame.getAndSet(null);
+        if (frame == null)
+            frame = new Frame(this);
+
+        try {
+            System.arraycopy(inputs, 0, frame.values, 0, inputCount);
+
+            for (var i = 0; i < executors.length; i++)
+                executeInstruction(frame, i);
+
+            for (var i = 0; i < resultValues.length; i++)
+                outputs[i] = readObject(frame, resultValues[i]);
+        } finally {
+            spareFrame.set(frame);
+        }
+    }
+
+    /**
+     * Executes this plan, reading and writing node outputs through a cache. The
+     * instructions are first walked backwards from the outputs of the plan. Any
+     * instruction whose outputs are found in the cache is not executed, and
+     * neither is any instruction that is only needed to compute it. All other
+     * instructions are executed as normal, and their outputs are stored in the
+     * cache if their cone is large enough.
+     * 
+     * @param inputs  - The input values.
+     * @param outputs - The array to write the output values into.
+     * @param cache   - The cache to use.
+     */
+    void execute(Object[] inputs, Object[] outputs, SubexpressionCache cache) {
+        var frame = spareFrame.getAndSet(null);
+        if (frame == null)
+            frame = new Frame(this);
+
+        try {
+            System.arraycopy(inputs, 0, frame.values, 0, inputCount);
+
+            var key = Arrays.copyOf(inputs, inputCount);
+            var keyHash = Arrays.hashCode(key);
+            var minConeSize = cache.getMinConeSize();
+            var states = frame.states;
+            Arrays.fill(states, SKIPPED);
+
+            for (var value : resultValues)
+                need(states, value);
+
+            for (var i = executors.length - 1; i >= 0; i--) {
+                if (states[i] != NEEDED)
+                    continue;
+
+                var cached = coneSizes[i] >= minConeSize ? cache.get(coneHashes[i], key, keyHash) : null;
+                if (cached != null) {
+                    states[i] = CACHED;
+                    writeOutputs(frame, i, cached);
+                    continue;
+                }
+
+                for (var j = inputOffsets[i]; j < inputOffsets[i + 1]; j++)
+                    need(states, inputValues[j]);
+            }
+
+            for (var i = 0; i < executors.length; i++) {
+                if (states[i] != NEEDED)
+                    continue;
+
+                executeInstruction(frame, i);
+
+                if (coneSizes[i] >= minConeSize)
+                    cache.put(coneHashes[i], key, keyHash, readOutputs(frame, i));
+            }
+
+            for (var i = 0; i < resultValues.length; i++)
+                outputs[i] = readObject(frame, resultValues[i]);
+        } finally {
+            spareFrame.set(frame);
+        }
+    }
+
+    private void need(byte[] states, int value) {
+        var producer = producers[value];
+        if (producer != -1)
+            states[producer] = NEEDED;
+    }
+
+    private void executeInstruction(Frame frame, int i) {
+        var offset = inputOffsets[i];
+        var result = outputOffsets[i];
+
+        switch (opcodes[i]) {
+            case FLOAT_UNARY -> frame.floats[result] = ((FloatUnaryExecutor) primitiveExecutors[i])
+                    .execute(readFloat(frame, inputValues[offset]));
+
+            case FLOAT_BINARY -> frame.floats[result] = ((FloatBinaryExecutor) primitiveExecutors[i])
+                    .execute(readFloat(frame, inputValues[offset]), readFloat(frame, inputValues[offset + 1]));
+
+            case FLOAT_TO_INT -> frame.ints[result] = ((FloatToIntExecutor) primitiveExecutors[i])
+                    .execute(readFloat(frame, inputValues[offset]));
+
+            case INT_BINARY -> frame.ints[result] = ((IntBinaryExecutor) primitiveExecutors[i])
+                    .execute(readInt(frame, inputValues[offset]), readInt(frame, inputValues[offset + 1]));
+
+            default -> {
+                var in = frame.inputs[i];
+                var out = frame.outputs[i];
+
+                for (var j = 0; j < in.length; j++)
+                    in[j] = readObject(frame, inputValues[offset + j]);
+
+                executors[i].execute(in, out);
+                System.arraycopy(out, 0, frame.values, result, out.length);
+            }
+        }
+    }
+
+    private Object[] readOutputs(Frame frame, int instruction) {
+        var values = new Object[outputCounts[instruction]];
+        for (var k = 0; k < values.length; k++)
+            values[k] = readObject(frame, outputOffsets[instruction] + k);
+
+        return values;
+    }
+
+    private void writeOutputs(Frame frame, int instruction, Object[] values) {
+        var result = outputOffsets[instruction];
+
+        switch (valueKinds[result]) {
+            case FLOAT_VALUE -> frame.floats[result] = (float) values[0];
+            case INT_VALUE -> frame.ints[result] = (int) values[0];
+            default -> System.arraycopy(values, 0, frame.values, result, values.length);
+        }
+    }
+
+    private float readFloat(Frame frame, int value) {
+        return switch (valueKinds[value]) {
+            case FLOAT_VALUE -> frame.floats[value];
+            case INT_VALUE -> frame.ints[value];
+            default -> PrimitiveExecutor.toFloat(frame.values[value]);
+        };
+    }
+
+    private int readInt(Frame frame, int value) {
+        return switch (valueKinds[value]) {
+            case INT_VALUE -> frame.ints[value];
+            default -> PrimitiveExecutor.toInt(readObject(frame, value));
+        };
+    }
+
+    private Object readObject(Frame frame, int value) {
+        return switch (valueKinds[value]) {
+            case FLOAT_VALUE -> frame.floats[value];
+            case INT_VALUE -> frame.ints[value];
+            default -> frame.values[value];
+        };
+    }
+
+    /**
+     * Executes this plan over many rows at once. Every instruction is executed
+     * over the whole column of rows before moving on to the next instruction.
+     * Instructions with a batch executor process the column in a single call,
+     * while all other instructions call their primitive or generic executor once
+     * per row.
+     * 
+     * @param inputs  - The input columns.
+     * @param outputs - The array to write the output columns into.
+     * @param rows    - The number of rows.
+     */
+    void executeBatch(Object[] inputs, Object[] outputs, int rows) {
+        var values = new Object[valueCount];
+        System.arraycopy(inputs, 0, values, 0, inputCount);
+
+        for (var i = 0; i < executors.length; i++) {
+            var offset = inputOffsets[i];
+            var in = new Object[inputOffsets[i + 1] - offset];
+            var out = new Object[outputCounts[i]];
+
+            for (var j = 0; j < in.length; j++)
+                in[j] = values[inputValues[offset + j]];
+
+            if (batchExecutors[i] != null)
+                batchExecutors[i].execute(in, out, rows);
+            else if (opcodes[i] != GENERIC)
+                executePrimitiveRows(i, in, out, rows);
+            else
+                executeRows(executors[i], in, out, rows);
+
+            System.arraycopy(out, 0, values, outputOffsets[i], out.length);
+        }
+
+        for (var i = 0; i < resultValues.length; i++)
+            outputs[i] = values[resultValues[i]];
+    }
+
+    private void executePrimitiveRows(int instruction, Object[] in, Object[] out, int rows) {
+        switch (opcodes[instruction]) {
+            case FLOAT_UNARY -> {
+                var executor = (FloatUnaryExecutor) primitiveExecutors[instruction];
+                var a = Columns.floats(in[0], rows);
+                var column = new float[rows];
+                for (var row = 0; row < rows; row++)
+                    column[row] = executor.execute(a[row]);
+                out[0] = column;
+            }
+
+            case FLOAT_BINARY -> {
+                var executor = (FloatBinaryExecutor) primitiveExecutors[instruction];
+                var a = Columns.floats(in[0], rows);
+                var b = Columns.floats(in[1], rows);
+                var column = new float[rows];
+                for (var row = 0; row < rows; row++)
+                    column[row] = executor.execute(a[row], b[row]);
+                out[0] = column;
+            }
+
+            case FLOAT_TO_INT -> {
+                var executor = (FloatToIntExecutor) primitiveExecutors[instruction];
+                var a = Columns.floats(in[0], rows);
+                var column = new int[rows];
+                for (var row = 0; row < rows; row++)
+                    column[row] = executor.execute(a[row]);
+                out[0] = column;
+            }
+
+            default -> {
+                var executor = (IntBinaryExecutor) primitiveExecutors[instruction];
+                var a = Columns.ints(in[0], rows);
+                var b = Columns.ints(in[1], rows);
+                var column = new int[rows];
+                for (var row = 0; row < rows; row++)
+                    column[row] = executor.execute(a[row], b[row]);
+                out[0] = column;
+            }
+        }
+    }
+
+    private static void executeRows(Executor executor, Object[] in, Object[] out, int rows) {
+        var rowIn = new Object[in.length];
+        var rowOut = new Object[out.length];
+
+        var columns = new Object[out.length][];
+        for (var k = 0; k < out.length; k++)
+            columns[k] = new Object[rows];
+
+        for (var row = 0; row < rows; row++) {
+            for (var j = 0; j < in.length; j++)
+                rowIn[j] = Columns.get(in[j], row);
+
+            executor.execute(rowIn, rowOut);
+
+            for (var k = 0; k < out.length; k++)
+                columns[k][row] = rowOut[k];
+        }
+
+        for (var k = 0; k < out.length; k++)
+            out[k] = Columns.compact(columns[k], rows);
+    }
+}
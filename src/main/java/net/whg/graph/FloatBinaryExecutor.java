@@ -0,0 +1,34 @@
+package net.whg.graph;
+
+/**
+ * A primitive executor that takes two floats and produces a float.
+ */
+public interface FloatBinaryExecutor extends PrimitiveExecutor {
+    /**
+     * Preforms the calculation. This function should always produce the same
+     * output for the same inputs, and should be thread safe as this can be called
+     * from any thread.
+     * 
+     * @param a - The first input value.
+     * @param b - The second input value.
+     * @return The output value.
+     */
+    float execute(float a, float b);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    default int getInputCount() {
+        return 2;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    default Executor boxed() {
+        return (inputs, outputs) -> outputs[0] = execute(PrimitiveExecutor.toFloat(inputs[0]),
+                PrimitiveExecutor.toFloat(inputs[1]));
+    }
+}
@@ -0,0 +1,32 @@
+package net.whg.graph;
+
+/**
+ * A primitive executor that takes a single float and produces a float.
+ */
+public interface FloatUnaryExecutor extends PrimitiveExecutor {
+    /**
+     * Preforms the calculation. This function should always produce the same
+     * output for the same inputs, and should be thread safe as this can be called
+     * from any thread.
+     * 
+     * @param a - The input value.
+     * @return The output value.
+     */
+    float execute(float a);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    default int getInputCount() {
+        return 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    default Executor boxed() {
+        return (inputs, outputs) -> outputs[0] = execute(PrimitiveExecutor.toFloat(inputs[0]));
+    }
+}
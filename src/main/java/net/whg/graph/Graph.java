@@ -1,184 +1,965 @@
 package net.whg.graph;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.whg.solver.AxiomStates;
 import net.whg.solver.Environment;
+import net.whg.solver.SearchSpace;
+import net.whg.util.Hashing;
 import net.whg.util.SafeArrayList;
 
+/**
+ * A persistent node graph. Every graph, other than the base graph, is stored as
+ * a pointer to its parent graph plus the single connection (and optionally the
+ * single new node) that was added to it. This allows child graphs to be created
+ * in constant time and to share all of their structure with their ancestors.
+ * The compact form of the graph, and the node and connection views on top of
+ * it, are only built when they are requested.
+ */
 public class Graph {
-    private final String name;
-    private final SafeArrayList<Connection> connections;
-    private final SafeArrayList<Node> nodes;
-    private boolean complete;
+    /**
+     * The number of bytes used to encode a single move by
+     * {@link #writeMoves(ByteBuffer, SearchSpace)}.
+     */
+    public static final int MOVE_BYTES = 3;
+
+    private static final AtomicLong LINEAGE_IDS = new AtomicLong();
+    private static final AtomicIntegerFieldUpdater<Graph> EXECUTIONS = AtomicIntegerFieldUpdater
+            .newUpdater(Graph.class, "executions");
+    private static final int COMPILE_CLAIMED = Integer.MIN_VALUE;
+    private static final long OPEN_SLOT = -1;
+    private static volatile int compileThreshold = 10_000;
+
+    private record Lineage(String name, NodeType outputNodeType, NodeType inputNodeType, long id) {
+    }
+
+    private record Views(SafeArrayList<Node> nodes, SafeArrayList<Connection> connections) {
+    }
+
+    /**
+     * A persistent stack of nodes whose inputs are not all connected yet, or
+     * whose inputs are connected to nodes that are not yet complete. The top of
+     * the stack always holds the next input slot to fill. Entries are shared
+     * between a graph and its children.
+     */
+    private record Frontier(int node, int index, int inputCount, Frontier next) {
+        private Frontier fill() {
+            return new Frontier(node, index + 1, inputCount, next);
+        }
+
+        private Frontier popCompleted() {
+            var frontier = this;
+            while (frontier != null && frontier.index == frontier.inputCount)
+                frontier = frontier.next;
+
+            return frontier;
+        }
+    }
+
+    private final Lineage lineage;
+    private final Graph parent;
+    private final NodeType newNodeType;
+    private final int nodeA;
+    private final int aIndex;
+    private final int nodeB;
+    private final int bIndex;
+    private final int nodeCount;
+    private final int connectionCount;
+    private final int slotCount;
+    private final Frontier frontier;
+    private GraphData data;
+    private Views views;
+    private Reachability reachability;
+    private long canonicalHash;
+    private ExecutionPlan plan;
+    private volatile CompiledGraph compiled;
+    private volatile int executions;
+    private AxiomStates axiomStates;
 
     public Graph(String name, NodeType inputNodeType, NodeType outputNodeType) {
         if (!outputNodeType.isOutputType())
             throw new IllegalArgumentException("The provided node type is not an output node!");
 
-        this.name = name;
-        connections = new SafeArrayList<Connection>(0);
-        nodes = new SafeArrayList<Node>(2);
-
-        nodes.add(new Node(outputNodeType));
-        nodes.add(new Node(inputNodeType));
+        lineage = new Lineage(name, outputNodeType, inputNodeType, nextLineageId());
+        parent = null;
+        newNodeType = null;
+        nodeA = -1;
+        aIndex = -1;
+        nodeB = -1;
+        bIndex = -1;
+        nodeCount = 2;
+        connectionCount = 0;
+        slotCount = outputNodeType.getInputCount() + inputNodeType.getInputCount();
+        frontier = new Frontier(0, 0, outputNodeType.getInputCount(), null);
     }
 
+    /**
+     * Creates a copy of a graph. As graphs are immutable, the copy shares all of
+     * its structure with the original graph and is equal to it in every way.
+     * 
+     * @param parent - The graph to copy.
+     * @deprecated Graphs can no longer be modified after they are created, so
+     *             there is no need to copy them. Use the original graph instead.
+     */
+    @Deprecated
     public Graph(Graph parent) {
-        this.name = parent.name;
-        connections = new SafeArrayList<Connection>(parent.connections.size() + 1);
-        nodes = new SafeArrayList<Node>(parent.nodes.size() + 1);
+        this.lineage = parent.lineage;
+        this.parent = parent.parent;
+        this.newNodeType = parent.newNodeType;
+        this.nodeA = parent.nodeA;
+        this.aIndex = parent.aIndex;
+        this.nodeB = parent.nodeB;
+        this.bIndex = parent.bIndex;
+        this.nodeCount = parent.nodeCount;
+        this.connectionCount = parent.connectionCount;
+        this.slotCount = parent.slotCount;
+        this.frontier = parent.frontier;
+        this.data = parent.data;
+        this.reachability = parent.reachability;
+    }
+
+    private Graph(Graph parent, NodeType newNodeType, int nodeA, int aIndex, int nodeB, int bIndex) {
+        this.lineage = parent.lineage;
+        this.parent = parent;
+        this.newNodeType = newNodeType;
+        this.nodeA = nodeA;
+        this.aIndex = aIndex;
+        this.nodeB = nodeB;
+        this.bIndex = bIndex;
 
-        for (var node : parent.nodes)
-            nodes.add(new Node(node.type()));
+        var filled = parent.frontier.fill();
+        if (newNodeType == null) {
+            nodeCount = parent.nodeCount;
+            slotCount = parent.slotCount;
+            frontier = filled.popCompleted();
+        } else {
+            nodeCount = parent.nodeCount + 1;
+            slotCount = parent.slotCount + newNodeType.getInputCount();
+            frontier = new Frontier(nodeA, 0, newNodeType.getInputCount(), filled).popCompleted();
+        }
 
-        for (var connection : parent.connections) {
-            var nodeA = nodes.get(parent.nodes.indexOf(connection.nodeA()));
-            var nodeB = nodes.get(parent.nodes.indexOf(connection.nodeB()));
-            var aIndex = connection.aIndex();
-            var bIndex = connection.bIndex();
+        connectionCount = parent.connectionCount + 1;
+    }
+
+    /**
+     * Creates a new identifier for a base graph, or for a node or connection that
+     * does not belong to any graph. Identifiers are never reused within a run.
+     * 
+     * @return The new identifier.
+     */
+    static long nextLineageId() {
+        return LINEAGE_IDS.incrementAndGet();
+    }
+
+    /**
+     * Gets a rough estimate of the number of bytes kept alive by this graph,
+     * assuming a 64-bit JVM with compressed object pointers. This covers the
+     * graph itself, the frontier entries it created, and its cached compact form
+     * and reachability index. Structure shared with the parent graph is not
+     * included, as it is kept alive by the parent and its other children as well.
+     * Execution plans and compiled classes are not included either, as they are
+     * only created for graphs that are executed.
+     * 
+     * @return The estimated size in bytes.
+     */
+    public long estimateByteSize() {
+        var size = 96L;
+
+        if (parent != null)
+            size += newNodeType == null ? 32 : 64;
+
+        var d = data;
+        if (d != null)
+            size += d.estimateByteSize();
+
+        var r = reachability;
+        if (r != null)
+            size += r.estimateByteSize();
+
+        return size;
+    }
 
-            connections.add(new Connection(nodeA, aIndex, nodeB, bIndex));
+    /**
+     * Gets the compact form of this graph, building and caching it if needed.
+     */
+    GraphData data() {
+        var d = data;
+        if (d == null) {
+            d = buildData();
+            data = d;
         }
+
+        return d;
+    }
+
+    /**
+     * Gets the compact form of this graph without caching it if it has not
+     * already been built. This is used while expanding graphs, as interior graphs
+     * of the search tree are kept alive by their children and should stay small.
+     * The trade-off is that every expansion walks the parent chain once to
+     * rebuild the compact form, which takes time linear in the number of
+     * connections. Caching it instead would keep a copy of every connection alive
+     * for every interior graph of the search tree.
+     */
+    private GraphData transientData() {
+        var d = data;
+        return d != null ? d : buildData();
+    }
+
+    private GraphData buildData() {
+        var nodeTypes = new NodeType[nodeCount];
+        var connections = new int[connectionCount * GraphData.STRIDE];
+
+        nodeTypes[0] = lineage.outputNodeType();
+        nodeTypes[1] = lineage.inputNodeType();
+
+        for (var graph = this; graph.parent != null; graph = graph.parent) {
+            if (graph.newNodeType != null)
+                nodeTypes[graph.nodeA] = graph.newNodeType;
+
+            var offset = (graph.connectionCount - 1) * GraphData.STRIDE;
+            connections[offset] = graph.nodeA;
+            connections[offset + 1] = graph.aIndex;
+            connections[offset + 2] = graph.nodeB;
+            connections[offset + 3] = graph.bIndex;
+        }
+
+        return new GraphData(nodeTypes, connections);
+    }
+
+    private Views views() {
+        var v = views;
+        if (v != null)
+            return v;
+
+        var d = data();
+        var nodes = new SafeArrayList<Node>(nodeCount);
+        var connections = new SafeArrayList<Connection>(connectionCount);
+
+        for (var i = 0; i < nodeCount; i++)
+            nodes.add(new Node(d.nodeType(i), i, lineage.id()));
+
+        for (var i = 0; i < connectionCount; i++) {
+            var a = nodes.get(d.nodeA(i));
+            var b = nodes.get(d.nodeB(i));
+            connections.add(new Connection(a, d.aIndex(i), b, d.bIndex(i), i, lineage.id()));
+        }
+
+        v = new Views(nodes, connections);
+        views = v;
+        return v;
     }
 
     public Node getOutputNode() {
-        return nodes.get(0);
+        return views().nodes().get(0);
     }
 
     public Node getInputNode() {
-        return nodes.get(1);
+        return views().nodes().get(1);
     }
 
     public List<Node> getAllNodes() {
-        return nodes.asReadOnly();
+        return views().nodes().asReadOnly();
     }
 
     public List<Connection> getAllConnections() {
-        return connections.asReadOnly();
+        return views().connections().asReadOnly();
     }
 
-    public void getChildGraphs(List<Graph> graphs, Environment env) {
-        var node = nextOpenNode();
-        var index = nextOpenIndex(node);
+    /**
+     * Gets the node type of the node at the given index. Index 0 is always the
+     * output node and index 1 is always the input node. This method does not
+     * create any node objects.
+     * 
+     * @param index - The node index.
+     * @return The node type.
+     */
+    public NodeType getNodeType(int index) {
+        return data().nodeType(index);
+    }
 
-        if (node == null)
-            return;
+    /**
+     * Gets the number of nodes in this graph. This method does not build the full
+     * node list.
+     * 
+     * @return The number of nodes.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Gets the number of connections in this graph. This method does not build
+     * the full connection list.
+     * 
+     * @return The number of connections.
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * Gets the total number of input arguments across all nodes in this graph.
+     * This is the number of connections this graph will have once it is complete.
+     * 
+     * @return The number of input slots.
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
 
-        addConnectionsToExistingNodes(node, index, graphs);
-        addConnectionsToNewNodes(node, index, graphs, env);
+    /**
+     * Gets the graph this graph was expanded from.
+     * 
+     * @return The parent graph, or null if this is a base graph.
+     */
+    public Graph getParent() {
+        return parent;
     }
 
-    private Node nextOpenNode() {
-        for (var i = nodes.size() - 1; i >= 0; i--) {
-            var node = nodes.get(i);
-            if (nextOpenIndex(node) > -1)
-                return node;
+    /**
+     * Gets the type of the node that was added by the connection that created
+     * this graph. The added node always has the highest node index.
+     * 
+     * @return The added node type, or null if the connection was made to an
+     *         existing node or if this is a base graph.
+     */
+    public NodeType getAddedNodeType() {
+        return newNodeType;
+    }
+
+    /**
+     * Gets the axiom states cached on this graph by a search space.
+     * 
+     * @return The axiom states, or null if none were cached.
+     * @see net.whg.solver.IncrementalAxiom
+     */
+    public AxiomStates getAxiomStates() {
+        return axiomStates;
+    }
+
+    /**
+     * Caches the axiom states of this graph. This is used by the search space to
+     * verify the children of this graph incrementally. Axiom states can only be
+     * created by a search space, and are computed again by any other search
+     * space that expands this graph.
+     * 
+     * @param states - The axiom states.
+     * @see net.whg.solver.IncrementalAxiom
+     */
+    public void setAxiomStates(AxiomStates states) {
+        axiomStates = states;
+    }
+
+    /**
+     * Gets the base graph this graph was expanded from, by following the chain of
+     * parent graphs.
+     * 
+     * @return The base graph, or this graph if it is a base graph.
+     */
+    public Graph getRoot() {
+        var graph = this;
+        while (graph.parent != null)
+            graph = graph.parent;
+
+        return graph;
+    }
+
+    /**
+     * Writes the moves that lead from the base graph to this graph, oldest first.
+     * Each child graph fills the next open input slot of its parent, so a move
+     * only needs to store the output it connects to: either an existing node, or
+     * a new node of a node type in the search space. Each move takes
+     * {@link #MOVE_BYTES} bytes, and there is one move for every connection in
+     * this graph.
+     * 
+     * @param buffer - The buffer to write to.
+     * @param space  - The search space that new node types are indexed in.
+     * @throws IllegalArgumentException If a node type of this graph is not part of
+     *                                  the search space, or if this graph is too
+     *                                  large to be encoded.
+     */
+    public void writeMoves(ByteBuffer buffer, SearchSpace space) {
+        var moves = new Graph[connectionCount];
+        var graph = this;
+        for (var i = connectionCount - 1; i >= 0; i--) {
+            moves[i] = graph;
+            graph = graph.parent;
+        }
+
+        for (var move : moves) {
+            var code = move.newNodeType == null ? move.nodeA : -space.getNodeTypeIndex(move.newNodeType) - 1;
+            if (code > Short.MAX_VALUE || code < Short.MIN_VALUE || move.aIndex > 0xFF)
+                throw new IllegalArgumentException("Graph is too large to encode!");
+
+            buffer.putShort((short) code);
+            buffer.put((byte) move.aIndex);
+        }
+    }
+
+    /**
+     * Reads a single move written by {@link #writeMoves(ByteBuffer, SearchSpace)}
+     * and applies it to this graph. The move must have been written against the
+     * same search space. Apart from bounds checks, the move is not validated.
+     * 
+     * @param buffer - The buffer to read from.
+     * @param space  - The search space that new node types are indexed in.
+     * @return The child graph created by the move.
+     * @throws IllegalStateException    If this graph is already complete.
+     * @throws IllegalArgumentException If the move does not fit this graph.
+     */
+    public Graph readMove(ByteBuffer buffer, SearchSpace space) {
+        var code = buffer.getShort();
+        var outputIndex = buffer.get() & 0xFF;
+
+        if (frontier == null)
+            throw new IllegalStateException("Graph is already complete!");
+
+        if (code < 0) {
+            var nodeTypes = space.getNodeTypes();
+            if (-code - 1 >= nodeTypes.size())
+                throw new IllegalArgumentException("Move does not fit graph!");
+
+            return applyMove(new Move(frontier.node(), frontier.index(), nodeCount, outputIndex,
+                    nodeTypes.get(-code - 1)));
+        }
+
+        return applyMove(new Move(frontier.node(), frontier.index(), code, outputIndex, null));
+    }
+
+    /**
+     * Creates the child graph described by a move. Apart from bounds checks, the
+     * move is not validated, so it should have been created by
+     * {@link #getMoves(List, SearchSpace)} or read from a trusted source.
+     * 
+     * @param move - The move to apply.
+     * @return The child graph.
+     * @throws IllegalStateException    If this graph is already complete.
+     * @throws IllegalArgumentException If the move does not fill the next open
+     *                                  input slot of this graph, or its source
+     *                                  node does not fit this graph.
+     */
+    public Graph applyMove(Move move) {
+        if (frontier == null)
+            throw new IllegalStateException("Graph is already complete!");
+
+        if (move.node() != frontier.node() || move.index() != frontier.index())
+            throw new IllegalArgumentException("Move does not fit graph!");
+
+        if (move.addsNode()) {
+            if (move.sourceNode() != nodeCount || move.outputIndex() >= move.nodeType().getOutputCount())
+                throw new IllegalArgumentException("Move does not fit graph!");
+        } else if (move.sourceNode() < 0 || move.sourceNode() >= nodeCount) {
+            throw new IllegalArgumentException("Move does not fit graph!");
+        }
+
+        return new Graph(this, move.nodeType(), move.sourceNode(), move.outputIndex(), move.node(), move.index());
+    }
+
+    /**
+     * Gets the move that created this graph from its parent.
+     * 
+     * @return The move, or null if this is a base graph.
+     */
+    public Move getMove() {
+        return parent == null ? null : new Move(nodeB, bIndex, nodeA, aIndex, newNodeType);
+    }
+
+    /**
+     * Gets the index of the node that owns the next input slot to be filled.
+     * 
+     * @return The node index, or -1 if this graph is complete.
+     */
+    public int getOpenNode() {
+        return frontier == null ? -1 : frontier.node();
+    }
+
+    /**
+     * Gets the input argument index of the next input slot to be filled.
+     * 
+     * @return The input argument index, or -1 if this graph is complete.
+     */
+    public int getOpenIndex() {
+        return frontier == null ? -1 : frontier.index();
+    }
+
+    /**
+     * Gets the nodes whose cones were completed by the connection that created
+     * this graph. The cone of a node is complete once every input argument of the
+     * node, and of every node feeding into it, is connected. Nodes are returned
+     * in the order they were completed, so each node comes before the nodes it
+     * feeds into.
+     * 
+     * @return The completed nodes. This is empty for base graphs and for graphs
+     *         that only added a node with open input arguments.
+     */
+    public int[] getCompletedNodes() {
+        if (parent == null || newNodeType != null && newNodeType.getInputCount() > 0)
+            return new int[0];
+
+        var nodes = new int[nodeCount];
+        var count = 0;
+
+        if (newNodeType != null)
+            nodes[count++] = nodeA;
+
+        for (var entry = parent.frontier.fill(); entry != null
+                && entry.index() == entry.inputCount(); entry = entry.next())
+            nodes[count++] = entry.node();
+
+        return Arrays.copyOf(nodes, count);
+    }
+
+    /**
+     * Gets a hash of the cone of a node. The hash covers the type of the node
+     * and, for each input argument in order, the cone hash and output index of
+     * the node feeding it. Unlike {@link #getCanonicalHash()}, nodes that are
+     * used several times within the cone are hashed once per use, so this hash
+     * describes the expression computed by the node rather than the shape of the
+     * graph.
+     * 
+     * @param node - The node index.
+     * @return The cone hash.
+     * @throws IllegalStateException If the cone of the node is not complete.
+     */
+    public long getConeHash(int node) {
+        return transientData().coneHash(node, new long[nodeCount]);
+    }
+
+    /**
+     * Gets the number of nodes in the cone of a node, including the node itself
+     * but not the input node. Nodes that are used several times within the cone
+     * are only counted once.
+     * 
+     * @param node - The node index.
+     * @return The number of nodes in the cone.
+     */
+    public int getConeSize(int node) {
+        var d = transientData();
+        var visited = new boolean[nodeCount];
+        var stack = new int[nodeCount];
+        var stackSize = 0;
+        var size = 0;
+
+        visited[1] = true;
+        visited[node] = true;
+        stack[stackSize++] = node;
+
+        while (stackSize > 0) {
+            var next = stack[--stackSize];
+            size++;
+
+            for (var slot = 0; slot < d.nodeType(next).getInputCount(); slot++) {
+                var connection = d.inputConnection(next, slot);
+                if (connection == -1 || visited[d.nodeA(connection)])
+                    continue;
+
+                visited[d.nodeA(connection)] = true;
+                stack[stackSize++] = d.nodeA(connection);
+            }
         }
 
-        return null;
+        return size;
+    }
+
+    /**
+     * Adds every graph that can be created by connecting the next open input
+     * argument of this graph to the given list. Only the node types that the
+     * search space lists as producers of the input's data type are considered
+     * for new nodes. Rearrangements of other graphs are skipped, as described in
+     * {@link #getMoves(List, SearchSpace)}.
+     * 
+     * @param graphs - The list to add the child graphs to.
+     * @param space  - The search space to take new node types from.
+     */
+    public void getChildGraphs(List<Graph> graphs, SearchSpace space) {
+        if (frontier == null)
+            return;
+
+        var moves = new ArrayList<Move>();
+        getMoves(moves, space);
+
+        for (var move : moves)
+            graphs.add(new Graph(this, move.nodeType(), move.sourceNode(), move.outputIndex(), move.node(),
+                    move.index()));
+    }
+
+    /**
+     * Adds every graph that can be created by connecting the next open input
+     * argument of this graph to the given list.
+     * 
+     * @param graphs - The list to add the child graphs to.
+     * @param env    - The environment to take new node types from.
+     * @deprecated This compiles and seals the environment if it was not compiled
+     *             yet. Use {@link #getChildGraphs(List, SearchSpace)} with the
+     *             search space from {@link Environment#compile()} instead.
+     */
+    @Deprecated
+    public void getChildGraphs(List<Graph> graphs, Environment env) {
+        getChildGraphs(graphs, env.compile());
+    }
+
+    /**
+     * Adds every move that can connect the next open input argument of this
+     * graph to the given list, without creating the child graphs. Only the node
+     * types that the search space lists as producers of the input's data type
+     * are considered for new nodes.
+     * <p>
+     * Moves that would only create a rearrangement of another graph, according
+     * to the {@link NodeProperty properties} of the node types involved, are
+     * skipped. For commutative node types, an input argument may not be
+     * connected to an existing output that sorts before the output feeding the
+     * previous input argument, where outputs are sorted by node index and then by
+     * output index. Idempotent node types may not be applied to their own result.
+     * For associative node types, the last open input argument of a graph may not
+     * be filled if that leaves a node of the same type in the first input argument
+     * of an associative node with no other consumers, as that chain can be
+     * rewritten to lean to the right with the same number of connections. At
+     * least one graph of every rearrangement is always kept.
+     * <p>
+     * Creating a child graph from a move takes constant time, but listing the
+     * moves rebuilds the compact form of this graph from its parent chain unless
+     * it was already built, so this method takes time linear in the number of
+     * connections of this graph.
+     * 
+     * @param moves - The list to add the moves to.
+     * @param space - The search space to take new node types from.
+     */
+    public void getMoves(List<Move> moves, SearchSpace space) {
+        if (frontier == null)
+            return;
+
+        var d = transientData();
+        var node = frontier.node();
+        var index = frontier.index();
+
+        var type = d.nodeType(node);
+        var lowerBound = commutativeLowerBound(d, type, node, index);
+        var repeated = idempotentRepeat(d, type, node, index);
+        var chain = slotCount - connectionCount == 1 ? findAssociativeChain(d) : -1;
+
+        addConnectionsToExistingNodes(d, node, index, lowerBound, repeated, chain, moves);
+        addConnectionsToNewNodes(d, node, index, moves, space);
+    }
+
+    /**
+     * Gets the sort key of an output, which orders outputs by node index and then
+     * by output index.
+     */
+    private static long outputKey(int node, int outputIndex) {
+        return ((long) node << 32) | outputIndex;
     }
 
-    private int nextOpenIndex(Node node) {
-        if (node == null)
+    /**
+     * Gets the sort key of the output feeding the previous input argument if
+     * both input arguments are interchangeable, or -1 if any output may be used.
+     * The previous input argument is always filled already, as the inputs of a
+     * node are filled in order.
+     */
+    private static long commutativeLowerBound(GraphData d, NodeType type, int node, int index) {
+        if (index == 0 || !type.hasProperty(NodeProperty.COMMUTATIVE))
             return -1;
 
-        if (node.type().isInputType())
+        if (type.getInput(index - 1) != type.getInput(index))
             return -1;
 
-        for (var i = connections.size() - 1; i >= 0; i--) {
-            var connection = connections.get(i);
-            if (connection.nodeB() != node)
-                continue;
+        var conn = d.inputConnection(node, index - 1);
+        return outputKey(d.nodeA(conn), d.aIndex(conn));
+    }
 
-            var index = connection.bIndex() + 1;
-            if (index < node.type().getInputCount())
-                return index;
-            else
+    /**
+     * Gets the sort key of the output feeding every other input argument if the
+     * last input argument of an idempotent node type is being filled, or -1 if
+     * the input arguments are not all fed by the same output.
+     */
+    private static long idempotentRepeat(GraphData d, NodeType type, int node, int index) {
+        if (index == 0 || index != type.getInputCount() - 1 || !type.hasProperty(NodeProperty.IDEMPOTENT))
+            return -1;
+
+        var conn = d.inputConnection(node, 0);
+        var key = outputKey(d.nodeA(conn), d.aIndex(conn));
+
+        for (var i = 1; i < index; i++) {
+            conn = d.inputConnection(node, i);
+            if (outputKey(d.nodeA(conn), d.aIndex(conn)) != key)
                 return -1;
         }
 
-        return 0;
+        return key;
     }
 
-    private boolean isChildOf(Node a, Node b, List<Node> buffer) {
-        buffer.clear();
-        buffer.add(a);
+    /**
+     * Finds the nodes that feed the first input argument of an associative node
+     * of the same type without having any other consumers. Returns -1 if there
+     * are none, the node if there is exactly one, or -2 if there are several.
+     * When only one input argument is left open, connecting it to the returned
+     * node is the only way to complete the graph without leaving a chain that
+     * can be rewritten.
+     */
+    private static int findAssociativeChain(GraphData d) {
+        var uses = new int[d.nodeCount()];
+        for (var conn = 0; conn < d.connectionCount(); conn++)
+            uses[d.nodeA(conn)]++;
+
+        var chain = -1;
+        for (var conn = 0; conn < d.connectionCount(); conn++) {
+            var source = d.nodeA(conn);
+            var type = d.nodeType(d.nodeB(conn));
 
-        for (var connection : connections) {
-            if (buffer.contains(connection.nodeB()) && !buffer.contains(connection.nodeA()))
-                buffer.add(connection.nodeA());
+            if (d.bIndex(conn) != 0 || uses[source] != 1 || d.nodeType(source) != type)
+                continue;
+
+            if (!type.hasProperty(NodeProperty.ASSOCIATIVE))
+                continue;
+
+            if (chain != -1)
+                return -2;
+
+            chain = source;
         }
 
-        return buffer.contains(b);
+        return chain;
     }
 
-    private void addConnectionsToExistingNodes(Node node, int index, List<Graph> graphs) {
-        var buffer = new ArrayList<Node>();
+    /**
+     * Checks whether or not feeding an output of the source type into the given
+     * node type would only apply an idempotent node type to its own result.
+     */
+    private static boolean isRepeatedIdempotent(NodeType type, NodeType sourceType) {
+        return sourceType == type && type.getInputCount() == 1 && type.hasProperty(NodeProperty.IDEMPOTENT);
+    }
 
-        for (var other : nodes) {
-            if (isChildOf(other, node, buffer))
+    /**
+     * Gets the reachability index of this graph. The index is derived from the
+     * parent's index when the parent has already been expanded, which is always
+     * the case during a normal search, and is otherwise built from scratch. It is
+     * cached, as the index of an expanded graph is the base for the indices of
+     * all of its children.
+     */
+    private Reachability reachability() {
+        var r = reachability;
+        if (r != null)
+            return r;
+
+        if (parent != null && parent.reachability != null)
+            r = parent.reachability.withConnection(nodeA, nodeB);
+        else
+            r = Reachability.of(transientData());
+
+        reachability = r;
+        return r;
+    }
+
+    private void addConnectionsToExistingNodes(GraphData d, int node, int index, long lowerBound, long repeated,
+            int chain, List<Move> moves) {
+        if (chain == -2)
+            return;
+
+        var reach = reachability();
+
+        for (var other = 0; other < nodeCount; other++) {
+            if (reach.reaches(node, other))
                 continue;
 
-            addConnectionsToNode(node, index, other, graphs);
+            if (chain != -1 && other != chain)
+                continue;
+
+            addConnectionsToNode(d, node, index, other, lowerBound, repeated, moves);
         }
     }
 
-    private void addConnectionsToNode(Node node, int index, Node parent, List<Graph> graphs) {
-        var inputType = node.type().getInput(index);
+    private void addConnectionsToNode(GraphData d, int node, int index, int parent, long lowerBound, long repeated,
+            List<Move> moves) {
+        var type = d.nodeType(node);
+        var inputType = type.getInput(index);
+        var parentType = d.nodeType(parent);
+
+        if (isRepeatedIdempotent(type, parentType))
+            return;
 
-        var outputCount = parent.type().getOutputCount();
+        var outputCount = parentType.getOutputCount();
         for (var outputIndex = 0; outputIndex < outputCount; outputIndex++) {
-            var outputType = parent.type().getOutput(outputIndex);
+            var outputType = parentType.getOutput(outputIndex);
 
             if (!outputType.isInstanceOf(inputType))
                 continue;
 
-            var newGraph = new Graph(this);
-            var oldNode = newGraph.nodes.get(nodes.indexOf(node));
-            var oldParent = newGraph.nodes.get(nodes.indexOf(parent));
-
-            var connection = new Connection(oldParent, outputIndex, oldNode, index);
-            newGraph.connections.add(connection);
-            newGraph.complete = newGraph.nextOpenNode() == null;
+            var key = outputKey(parent, outputIndex);
+            if (key < lowerBound || key == repeated)
+                continue;
 
-            graphs.add(newGraph);
+            moves.add(new Move(node, index, parent, outputIndex, null));
         }
     }
 
-    private void addConnectionsToNewNodes(Node node, int index, List<Graph> graphs, Environment env) {
-        var inputType = node.type().getInput(index);
+    private void addConnectionsToNewNodes(GraphData d, int node, int index, List<Move> moves, SearchSpace space) {
+        var type = d.nodeType(node);
+        var inputType = type.getInput(index);
 
-        for (var nodeType : env.getNodeTypes()) {
-            if (nodeType.isInputType() || nodeType.isOutputType())
+        for (var producer : space.getProducers(inputType)) {
+            var producerType = producer.nodeType();
+
+            if (isRepeatedIdempotent(type, producerType))
                 continue;
 
-            var outputCount = nodeType.getOutputCount();
-            for (var outputIndex = 0; outputIndex < outputCount; outputIndex++) {
-                var outputType = nodeType.getOutput(outputIndex);
+            moves.add(new Move(node, index, nodeCount, producer.outputIndex(), producerType));
+        }
+    }
+
+    /**
+     * Gets a hash of the canonical form of this graph. Graphs that have the same
+     * structure produce the same hash, no matter in which order their nodes were
+     * created. Nodes are labeled in the order they are first reached when walking
+     * backwards from the output node through the input arguments in order, and
+     * the hash covers the type of every labeled node along with the label and
+     * output index feeding each of its input arguments. Open input arguments are
+     * included in the hash as well, so a complete graph never shares a hash with
+     * an incomplete one.
+     * <p>
+     * The input arguments of {@link NodeProperty#COMMUTATIVE commutative} node
+     * types are walked sorted by the shape of the subgraph feeding them, within
+     * each run of input arguments that share a data type, so graphs that only
+     * differ in the order of those input arguments share a hash as well.
+     * 
+     * @return The canonical hash. This value is never 0.
+     */
+    public long getCanonicalHash() {
+        var hash = canonicalHash;
+        if (hash != 0)
+            return hash;
+
+        var d = transientData();
+        var labels = new int[nodeCount];
+        var order = new int[nodeCount];
+        var labeled = 1;
+        long[] shapes = null;
+
+        labels[0] = 1;
+        hash = Hashing.start();
 
-                if (!outputType.isInstanceOf(inputType))
+        for (var i = 0; i < labeled; i++) {
+            var node = order[i];
+            var type = d.nodeType(node);
+            hash = Hashing.mix(hash, type.getSignatureHash());
+
+            int[] slots = null;
+            if (type.hasProperty(NodeProperty.COMMUTATIVE)) {
+                if (shapes == null)
+                    shapes = new long[nodeCount];
+
+                slots = commutativeSlotOrder(d, node, shapes);
+            }
+
+            for (var j = 0; j < type.getInputCount(); j++) {
+                var slot = slots == null ? j : slots[j];
+                var connection = d.inputConnection(node, slot);
+                if (connection == -1) {
+                    hash = Hashing.mix(hash, OPEN_SLOT);
                     continue;
+                }
 
-                var newGraph = new Graph(this);
-                var oldNode = newGraph.nodes.get(nodes.indexOf(node));
+                var source = d.nodeA(connection);
+                if (labels[source] == 0) {
+                    order[labeled] = source;
+                    labels[source] = ++labeled;
+                }
 
-                var newNode = new Node(nodeType);
-                var connection = new Connection(newNode, outputIndex, oldNode, index);
+                hash = Hashing.mix(hash, ((long) labels[source] << 32) | d.aIndex(connection));
+            }
+        }
 
-                newGraph.nodes.add(newNode);
-                newGraph.connections.add(connection);
-                newGraph.complete = newGraph.nextOpenNode() == null;
+        if (hash == 0)
+            hash = 1;
 
-                graphs.add(newGraph);
+        canonicalHash = hash;
+        return hash;
+    }
+
+    /**
+     * Gets the order in which the input arguments of a commutative node are
+     * walked by {@link #getCanonicalHash()}. Each run of input arguments that
+     * share a data type is sorted by the shape hash of the output feeding it.
+     */
+    private static int[] commutativeSlotOrder(GraphData d, int node, long[] shapes) {
+        var type = d.nodeType(node);
+        var count = type.getInputCount();
+        var slots = new int[count];
+        var keys = new long[count];
+
+        for (var slot = 0; slot < count; slot++) {
+            slots[slot] = slot;
+            keys[slot] = slotShapeHash(d, node, slot, shapes);
+        }
+
+        for (var slot = 1; slot < count; slot++) {
+            for (var k = slot; k > 0 && type.getInput(k - 1) == type.getInput(k)
+                    && keys[slots[k - 1]] > keys[slots[k]]; k--) {
+                var swap = slots[k];
+                slots[k] = slots[k - 1];
+                slots[k - 1] = swap;
             }
         }
+
+        return slots;
+    }
+
+    /**
+     * Gets a hash of the subgraph feeding an input argument, which covers the
+     * output index, node types and open input arguments, but not node indices.
+     * Nodes that are used several times are hashed once per use.
+     */
+    private static long slotShapeHash(GraphData d, int node, int slot, long[] shapes) {
+        var connection = d.inputConnection(node, slot);
+        if (connection == -1)
+            return OPEN_SLOT;
+
+        return Hashing.mix(shapeHash(d, d.nodeA(connection), shapes), d.aIndex(connection));
+    }
+
+    /**
+     * Gets a hash of the subgraph ending in a node, where the input arguments of
+     * commutative node types are combined independently of their order.
+     */
+    private static long shapeHash(GraphData d, int node, long[] shapes) {
+        if (shapes[node] != 0)
+            return shapes[node];
+
+        var type = d.nodeType(node);
+        var count = type.getInputCount();
+        var keys = new long[count];
+
+        for (var slot = 0; slot < count; slot++)
+            keys[slot] = slotShapeHash(d, node, slot, shapes);
+
+        if (type.hasProperty(NodeProperty.COMMUTATIVE)) {
+            for (var slot = 1; slot < count; slot++) {
+                for (var k = slot; k > 0 && type.getInput(k - 1) == type.getInput(k)
+                        && keys[k - 1] > keys[k]; k--) {
+                    var swap = keys[k];
+                    keys[k] = keys[k - 1];
+                    keys[k - 1] = swap;
+                }
+            }
+        }
+
+        var hash = Hashing.mix(Hashing.start(), type.getSignatureHash());
+        for (var key : keys)
+            hash = Hashing.mix(hash, key);
+
+        if (hash == 0)
+            hash = 1;
+
+        shapes[node] = hash;
+        return hash;
     }
 
     public String getName() {
-        return name;
+        return lineage.name();
     }
 
     @Override
@@ -187,48 +968,172 @@ public class Graph {
     }
 
     public boolean isComplete() {
-        return complete;
+        return frontier == null;
     }
 
+    /**
+     * Sets how many times a graph must be executed before it is compiled into JVM
+     * bytecode. Compiled graphs call every node executor directly, which allows
+     * the JIT compiler to inline the whole graph into a single method. Only graphs
+     * that are executed many times, such as top solutions, benefit from this, as
+     * every compiled graph is loaded as its own class.
+     * 
+     * @param executions - The number of executions before a graph is compiled, or
+     *                   0 to never compile graphs.
+     */
+    public static void setCompileThreshold(int executions) {
+        compileThreshold = executions;
+    }
+
+    /**
+     * Gets how many times a graph must be executed before it is compiled into JVM
+     * bytecode.
+     * 
+     * @return The number of executions, or 0 if graphs are never compiled.
+     */
+    public static int getCompileThreshold() {
+        return compileThreshold;
+    }
+
+    /**
+     * Executes this graph. The first call compiles the graph into an execution
+     * plan, after which every call runs in time linear to the size of the graph
+     * without allocating. Once the graph has been executed often enough, as set
+     * by {@link #setCompileThreshold(int)}, it is compiled further into JVM
+     * bytecode. If a {@link SubexpressionCache} is bound to the current thread,
+     * node outputs are read from and written to that cache instead, and the graph
+     * is never compiled. This function may be called from any thread; exactly
+     * one of the threads that reach the threshold compiles the graph, and a graph
+     * that fails to compile keeps running on its execution plan.
+     * 
+     * @param inputs  - The values to pass out of the input node.
+     * @param outputs - The array to write the values passed into the output node
+     *                into.
+     * @throws IllegalStateException If this graph is not complete, or if the
+     *                               number of inputs or outputs does not match the
+     *                               input and output node types.
+     */
     public void execute(Object[] inputs, Object[] outputs) {
-        if (!complete)
+        if (!isComplete())
             throw new IllegalStateException("Graph is not complete!");
 
-        if (inputs.length != getInputNode().type().getOutputCount())
+        if (inputs.length != lineage.inputNodeType().getOutputCount())
             throw new IllegalStateException("Unexpected number of inputs!");
 
-        if (outputs.length != getOutputNode().type().getInputCount())
+        if (outputs.length != lineage.outputNodeType().getInputCount())
             throw new IllegalStateException("Unexpected number of outputs!");
 
-        var cache = new HashMap<Node, Object[]>();
-        cache.put(getInputNode(), inputs);
+        var cache = SubexpressionCache.current();
+        if (cache != null) {
+            executionPlan().execute(inputs, outputs, cache);
+            return;
+        }
+
+        var c = compiled;
+        if (c != null) {
+            c.execute(inputs, outputs);
+            return;
+        }
+
+        var p = executionPlan();
+        p.execute(inputs, outputs);
 
-        var out = getExecutionOutput(getOutputNode(), cache);
-        System.arraycopy(out, 0, outputs, 0, out.length);
+        var threshold = compileThreshold;
+        if (threshold <= 0 || executions < 0)
+            return;
+
+        var count = EXECUTIONS.incrementAndGet(this);
+        if (count >= threshold && EXECUTIONS.compareAndSet(this, count, COMPILE_CLAIMED))
+            tierUp(p);
     }
 
-    private Object[] getExecutionOutput(Node node, Map<Node, Object[]> cache) {
-        if (cache.containsKey(node))
-            return cache.get(node);
+    /**
+     * Compiles the execution plan of this graph into JVM bytecode. This is only
+     * called by the one thread that claimed the compilation, and is never tried
+     * again. If the compiler fails, the graph keeps running on its execution
+     * plan.
+     */
+    private void tierUp(ExecutionPlan p) {
+        try {
+            compiled = GraphCompiler.compile(p);
+        } catch (RuntimeException e) {
+            // The execution plan gives the same results, only slower.
+        }
+    }
 
-        var inputs = new Object[node.type().getInputCount()];
+    /**
+     * Executes this graph over many rows at once. Each input and output value is
+     * given as a column with one element per row, stored as a float[], int[], or
+     * Object[]. Every node is executed over the whole column before moving on to
+     * the next node, so node types with a batch executor can process all rows in
+     * a single tight loop. This function may be called from any thread.
+     * 
+     * @param inputs  - The columns to pass out of the input node.
+     * @param outputs - The array to write the columns passed into the output node
+     *                into.
+     * @param rows    - The number of rows in each input column.
+     * @throws IllegalStateException If this graph is not complete, or if the
+     *                               number of inputs or outputs does not match the
+     *                               input and output node types.
+     * @see Columns
+     */
+    public void executeBatch(Object[] inputs, Object[] outputs, int rows) {
+        if (!isComplete())
+            throw new IllegalStateException("Graph is not complete!");
 
-        for (var connection : connections) {
-            if (connection.nodeB() != node)
-                continue;
+        if (inputs.length != lineage.inputNodeType().getOutputCount())
+            throw new IllegalStateException("Unexpected number of inputs!");
+
+        if (outputs.length != lineage.outputNodeType().getInputCount())
+            throw new IllegalStateException("Unexpected number of outputs!");
 
-            var incoming = getExecutionOutput(connection.nodeA(), cache);
-            inputs[connection.bIndex()] = incoming[connection.aIndex()];
+        executionPlan().executeBatch(inputs, outputs, rows);
+    }
+
+    /**
+     * Executes the cone of a single node over many rows at once. Only the nodes
+     * that the given node depends on are executed, so the rest of the graph does
+     * not need to be complete. For the output node, this is the same as
+     * {@link #executeBatch(Object[], Object[], int)}.
+     * 
+     * @param node    - The node to execute.
+     * @param inputs  - The columns to pass out of the input node.
+     * @param outputs - The array to write the output columns of the node into.
+     *                For the output node, this receives the columns passed into
+     *                it instead.
+     * @param rows    - The number of rows in each input column.
+     * @throws IllegalArgumentException If the node is the input node or does not
+     *                                  exist.
+     * @throws IllegalStateException    If the cone of the node is not complete, or
+     *                                  if the number of inputs or outputs does not
+     *                                  match.
+     */
+    public void executeBatch(int node, Object[] inputs, Object[] outputs, int rows) {
+        if (node == 0) {
+            executeBatch(inputs, outputs, rows);
+            return;
         }
 
-        if (node.type().isOutputType()) {
-            cache.put(node, inputs);
-            return inputs;
-        } else {
-            var outputs = new Object[node.type().getOutputCount()];
-            node.type().getExecutor().execute(inputs, outputs);
-            cache.put(node, outputs);
-            return outputs;
+        if (node == 1 || node < 0 || node >= nodeCount)
+            throw new IllegalArgumentException("Not an executable node!");
+
+        var d = transientData();
+        if (inputs.length != lineage.inputNodeType().getOutputCount())
+            throw new IllegalStateException("Unexpected number of inputs!");
+
+        if (outputs.length != d.nodeType(node).getOutputCount())
+            throw new IllegalStateException("Unexpected number of outputs!");
+
+        ExecutionPlan.compile(d, node, true).executeBatch(inputs, outputs, rows);
+    }
+
+    private ExecutionPlan executionPlan() {
+        var p = plan;
+        if (p == null) {
+            p = ExecutionPlan.compile(transientData(), 0);
+            plan = p;
         }
+
+        return p;
     }
 }
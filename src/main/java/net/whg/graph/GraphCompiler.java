@@ -0,0 +1,556 @@
+package net.whg.graph;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles execution plans into hidden classes. The generated class calls the
+ * executor of every node directly, with each executor stored in its own static
+ * final field, and keeps all intermediate values in local variables. This lets
+ * HotSpot inline every executor into a single compiled method and remove most
+ * of the argument arrays and boxed values through escape analysis. Primitive
+ * executors are called with float and int locals directly, so values passed
+ * between them are never boxed.
+ * <p>
+ * The generated code has no branches, so the class file needs no stack map
+ * frames and can be written directly without a bytecode library.
+ */
+final class GraphCompiler {
+    /**
+     * The largest method body, in bytes, that HotSpot is willing to JIT compile
+     * by default. Graphs that would produce a larger method are not compiled, as
+     * the generated method would only ever be interpreted.
+     */
+    static final int MAX_CODE_SIZE = 8000;
+
+    private static final String CLASS_NAME = "net/whg/graph/GeneratedGraph";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String EXECUTOR = "net/whg/graph/Executor";
+    private static final String EXECUTE_DESC = "([Ljava/lang/Object;[Ljava/lang/Object;)V";
+    private static final String PRIMITIVE_EXECUTOR = "net/whg/graph/PrimitiveExecutor";
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int INPUTS_LOCAL = 1;
+    private static final int OUTPUTS_LOCAL = 2;
+    private static final int ARGS_IN_LOCAL = 3;
+    private static final int ARGS_OUT_LOCAL = 4;
+    private static final int FIRST_VALUE_LOCAL = 5;
+
+    /**
+     * A growable byte buffer that writes big-endian values, as used by the class
+     * file format.
+     */
+    private static final class ByteBuffer {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        private void u1(int value) {
+            if (size == bytes.length)
+                bytes = Arrays.copyOf(bytes, size * 2);
+
+            bytes[size++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        private void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        private void append(ByteBuffer other) {
+            for (var i = 0; i < other.size; i++)
+                u1(other.bytes[i]);
+        }
+
+        private byte[] toArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * The constant pool of the generated class. Equal constants are only stored
+     * once.
+     */
+    private static final class ConstantPool {
+        private final ByteBuffer bytes = new ByteBuffer();
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        private int utf8(String value) {
+            var key = "U" + value;
+            var index = entries.get(key);
+            if (index != null)
+                return index;
+
+            var data = value.getBytes(StandardCharsets.UTF_8);
+            bytes.u1(1);
+            bytes.u2(data.length);
+            for (var b : data)
+                bytes.u1(b);
+
+            return add(key);
+        }
+
+        private int classRef(String name) {
+            return reference("C" + name, 7, utf8(name), -1);
+        }
+
+        private int string(String value) {
+            return reference("S" + value, 8, utf8(value), -1);
+        }
+
+        private int integer(int value) {
+            var key = "I" + value;
+            var index = entries.get(key);
+            if (index != null)
+                return index;
+
+            bytes.u1(3);
+            bytes.u4(value);
+            return add(key);
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            return reference("N" + name + " " + descriptor, 12, utf8(name), utf8(descriptor));
+        }
+
+        private int fieldRef(String owner, String name, String descriptor) {
+            return member(9, owner, name, descriptor);
+        }
+
+        private int methodRef(String owner, String name, String descriptor) {
+            return member(10, owner, name, descriptor);
+        }
+
+        private int interfaceMethodRef(String owner, String name, String descriptor) {
+            return member(11, owner, name, descriptor);
+        }
+
+        private int member(int tag, String owner, String name, String descriptor) {
+            var key = tag + owner + "." + name + " " + descriptor;
+            return reference(key, tag, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        private int reference(String key, int tag, int first, int second) {
+            var index = entries.get(key);
+            if (index != null)
+                return index;
+
+            bytes.u1(tag);
+            bytes.u2(first);
+            if (second != -1)
+                bytes.u2(second);
+
+            return add(key);
+        }
+
+        private int add(String key) {
+            var index = count++;
+            entries.put(key, index);
+            return index;
+        }
+    }
+
+    /**
+     * The body of a single generated method.
+     */
+    private static final class Code {
+        private final ConstantPool pool;
+        private final ByteBuffer bytes = new ByteBuffer();
+
+        private Code(ConstantPool pool) {
+            this.pool = pool;
+        }
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                bytes.u1(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                bytes.u1(0x10);
+                bytes.u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                bytes.u1(0x11);
+                bytes.u2(value);
+            } else {
+                ldc(pool.integer(value));
+            }
+        }
+
+        private void ldc(int index) {
+            bytes.u1(0x13);
+            bytes.u2(index);
+        }
+
+        private void aload(int local) {
+            localInstruction(0x19, 0x2A, local);
+        }
+
+        private void astore(int local) {
+            localInstruction(0x3A, 0x4B, local);
+        }
+
+        private void fload(int local) {
+            localInstruction(0x17, 0x22, local);
+        }
+
+        private void fstore(int local) {
+            localInstruction(0x38, 0x43, local);
+        }
+
+        private void iload(int local) {
+            localInstruction(0x15, 0x1A, local);
+        }
+
+        private void istore(int local) {
+            localInstruction(0x36, 0x3B, local);
+        }
+
+        private void i2f() {
+            bytes.u1(0x86);
+        }
+
+        private void localInstruction(int opcode, int shortOpcode, int local) {
+            if (local <= 3) {
+                bytes.u1(shortOpcode + local);
+            } else if (local <= 255) {
+                bytes.u1(opcode);
+                bytes.u1(local);
+            } else {
+                bytes.u1(0xC4);
+                bytes.u1(opcode);
+                bytes.u2(local);
+            }
+        }
+
+        private void aaload() {
+            bytes.u1(0x32);
+        }
+
+        private void aastore() {
+            bytes.u1(0x53);
+        }
+
+        private void newObjectArray(int length) {
+            pushInt(length);
+            bytes.u1(0xBD);
+            bytes.u2(pool.classRef(OBJECT));
+        }
+
+        private void checkcast(String type) {
+            bytes.u1(0xC0);
+            bytes.u2(pool.classRef(type));
+        }
+
+        private void getstatic(int field) {
+            bytes.u1(0xB2);
+            bytes.u2(field);
+        }
+
+        private void putstatic(int field) {
+            bytes.u1(0xB3);
+            bytes.u2(field);
+        }
+
+        private void invokespecial(int method) {
+            bytes.u1(0xB7);
+            bytes.u2(method);
+        }
+
+        private void invokestatic(int method) {
+            bytes.u1(0xB8);
+            bytes.u2(method);
+        }
+
+        private void invokeinterface(int method, int argumentSlots) {
+            bytes.u1(0xB9);
+            bytes.u2(method);
+            bytes.u1(argumentSlots);
+            bytes.u1(0);
+        }
+
+        private void returnVoid() {
+            bytes.u1(0xB1);
+        }
+    }
+
+    private GraphCompiler() {
+    }
+
+    /**
+     * Compiles an execution plan into a new hidden class. The hidden class is
+     * unloaded once the returned object is no longer reachable.
+     * 
+     * @param plan - The plan to compile.
+     * @return The compiled graph, or null if the plan is too large to benefit
+     *         from compilation.
+     * @throws IllegalStateException If the generated class could not be loaded.
+     */
+    static CompiledGraph compile(ExecutionPlan plan) {
+        var pool = new ConstantPool();
+        var instructionCount = plan.getInstructionCount();
+
+        var thisClass = pool.classRef(CLASS_NAME);
+        var superClass = pool.classRef(OBJECT);
+        var compiledGraph = pool.classRef("net/whg/graph/CompiledGraph");
+
+        var fieldTypes = new String[instructionCount];
+        var fields = new int[instructionCount];
+        var executors = new Object[instructionCount];
+        for (var i = 0; i < instructionCount; i++) {
+            var primitive = plan.getPrimitiveExecutor(i);
+            fieldTypes[i] = primitive == null ? EXECUTOR : primitiveType(primitive);
+            fields[i] = pool.fieldRef(CLASS_NAME, "e" + i, "L" + fieldTypes[i] + ";");
+            executors[i] = primitive == null ? plan.getExecutor(i) : primitive;
+        }
+
+        var execute = writeExecute(plan, pool, fieldTypes, fields);
+        if (execute.bytes.size > MAX_CODE_SIZE)
+            return null;
+
+        var init = writeInit(pool);
+        var clinit = writeClassInit(pool, fieldTypes, fields);
+
+        var methods = new ByteBuffer();
+        writeMethod(methods, pool, ACC_PUBLIC, "<init>", "()V", init, 1, 1);
+        writeMethod(methods, pool, ACC_STATIC, "<clinit>", "()V", clinit, 3, 1);
+        writeMethod(methods, pool, ACC_PUBLIC, "execute", EXECUTE_DESC, execute, 4,
+                FIRST_VALUE_LOCAL + plan.getValueCount());
+
+        var fieldBytes = new ByteBuffer();
+        for (var i = 0; i < instructionCount; i++) {
+            fieldBytes.u2(ACC_PRIVATE | ACC_STATIC | ACC_FINAL);
+            fieldBytes.u2(pool.utf8("e" + i));
+            fieldBytes.u2(pool.utf8("L" + fieldTypes[i] + ";"));
+            fieldBytes.u2(0);
+        }
+
+        var classFile = new ByteBuffer();
+        classFile.u4(0xCAFEBABE);
+        classFile.u2(0);
+        classFile.u2(60);
+        classFile.u2(pool.count);
+        classFile.append(pool.bytes);
+        classFile.u2(ACC_FINAL | ACC_SUPER);
+        classFile.u2(thisClass);
+        classFile.u2(superClass);
+        classFile.u2(1);
+        classFile.u2(compiledGraph);
+        classFile.u2(instructionCount);
+        classFile.append(fieldBytes);
+        classFile.u2(3);
+        classFile.append(methods);
+        classFile.u2(0);
+
+        try {
+            var lookup = MethodHandles.lookup().defineHiddenClassWithClassData(classFile.toArray(), executors, true);
+            var constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+            return (CompiledGraph) constructor.invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to compile graph!", e);
+        }
+    }
+
+    private static Code writeInit(ConstantPool pool) {
+        var code = new Code(pool);
+        code.aload(0);
+        code.invokespecial(pool.methodRef(OBJECT, "<init>", "()V"));
+        code.returnVoid();
+        return code;
+    }
+
+    private static String primitiveType(PrimitiveExecutor executor) {
+        if (executor instanceof FloatUnaryExecutor)
+            return "net/whg/graph/FloatUnaryExecutor";
+
+        if (executor instanceof FloatBinaryExecutor)
+            return "net/whg/graph/FloatBinaryExecutor";
+
+        if (executor instanceof FloatToIntExecutor)
+            return "net/whg/graph/FloatToIntExecutor";
+
+        return "net/whg/graph/IntBinaryExecutor";
+    }
+
+    private static String primitiveDescriptor(String type) {
+        return switch (type) {
+            case "net/whg/graph/FloatUnaryExecutor" -> "(F)F";
+            case "net/whg/graph/FloatBinaryExecutor" -> "(FF)F";
+            case "net/whg/graph/FloatToIntExecutor" -> "(F)I";
+            default -> "(II)I";
+        };
+    }
+
+    private static Code writeClassInit(ConstantPool pool, String[] fieldTypes, int[] fields) {
+        var code = new Code(pool);
+
+        code.invokestatic(pool.methodRef("java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;"));
+        code.ldc(pool.string("_"));
+        code.ldc(pool.classRef("[Ljava/lang/Object;"));
+        code.invokestatic(pool.methodRef("java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;"));
+        code.checkcast("[Ljava/lang/Object;");
+        code.astore(0);
+
+        for (var i = 0; i < fields.length; i++) {
+            code.aload(0);
+            code.pushInt(i);
+            code.aaload();
+            code.checkcast(fieldTypes[i]);
+            code.putstatic(fields[i]);
+        }
+
+        code.returnVoid();
+        return code;
+    }
+
+    private static Code writeExecute(ExecutionPlan plan, ConstantPool pool, String[] fieldTypes, int[] fields) {
+        var code = new Code(pool);
+        var executeMethod = pool.interfaceMethodRef(EXECUTOR, "execute", EXECUTE_DESC);
+
+        for (var i = 0; i < plan.getInputCount(); i++) {
+            code.aload(INPUTS_LOCAL);
+            code.pushInt(i);
+            code.aaload();
+            code.astore(FIRST_VALUE_LOCAL + i);
+        }
+
+        for (var i = 0; i < plan.getInstructionCount(); i++) {
+            var inputCount = plan.getInputCount(i);
+
+            if (plan.getPrimitiveExecutor(i) != null) {
+                var descriptor = primitiveDescriptor(fieldTypes[i]);
+                var floatInputs = descriptor.charAt(1) == 'F';
+
+                code.getstatic(fields[i]);
+                for (var slot = 0; slot < inputCount; slot++) {
+                    if (floatInputs)
+                        loadFloat(code, plan, plan.getInputValue(i, slot));
+                    else
+                        loadInt(code, plan, plan.getInputValue(i, slot));
+                }
+
+                code.invokeinterface(pool.interfaceMethodRef(fieldTypes[i], "execute", descriptor), 1 + inputCount);
+
+                if (descriptor.endsWith("F"))
+                    code.fstore(FIRST_VALUE_LOCAL + plan.getOutputValue(i));
+                else
+                    code.istore(FIRST_VALUE_LOCAL + plan.getOutputValue(i));
+
+                continue;
+            }
+
+            code.newObjectArray(inputCount);
+            code.astore(ARGS_IN_LOCAL);
+
+            for (var slot = 0; slot < inputCount; slot++) {
+                code.aload(ARGS_IN_LOCAL);
+                code.pushInt(slot);
+                loadObject(code, plan, plan.getInputValue(i, slot));
+                code.aastore();
+            }
+
+            var outputCount = plan.getOutputCount(i);
+            code.newObjectArray(outputCount);
+            code.astore(ARGS_OUT_LOCAL);
+
+            code.getstatic(fields[i]);
+            code.aload(ARGS_IN_LOCAL);
+            code.aload(ARGS_OUT_LOCAL);
+            code.invokeinterface(executeMethod, 3);
+
+            for (var slot = 0; slot < outputCount; slot++) {
+                code.aload(ARGS_OUT_LOCAL);
+                code.pushInt(slot);
+                code.aaload();
+                code.astore(FIRST_VALUE_LOCAL + plan.getOutputValue(i) + slot);
+            }
+        }
+
+        for (var i = 0; i < plan.getOutputCount(); i++) {
+            code.aload(OUTPUTS_LOCAL);
+            code.pushInt(i);
+            loadObject(code, plan, plan.getResultValue(i));
+            code.aastore();
+        }
+
+        code.returnVoid();
+        return code;
+    }
+
+    private static void loadFloat(Code code, ExecutionPlan plan, int value) {
+        var local = FIRST_VALUE_LOCAL + value;
+
+        switch (plan.getValueKind(value)) {
+            case ExecutionPlan.FLOAT_VALUE -> code.fload(local);
+
+            case ExecutionPlan.INT_VALUE -> {
+                code.iload(local);
+                code.i2f();
+            }
+
+            default -> {
+                code.aload(local);
+                code.invokestatic(code.pool.interfaceMethodRef(PRIMITIVE_EXECUTOR, "toFloat", "(L" + OBJECT + ";)F"));
+            }
+        }
+    }
+
+    private static void loadInt(Code code, ExecutionPlan plan, int value) {
+        if (plan.getValueKind(value) == ExecutionPlan.INT_VALUE) {
+            code.iload(FIRST_VALUE_LOCAL + value);
+            return;
+        }
+
+        loadObject(code, plan, value);
+        code.invokestatic(code.pool.interfaceMethodRef(PRIMITIVE_EXECUTOR, "toInt", "(L" + OBJECT + ";)I"));
+    }
+
+    private static void loadObject(Code code, ExecutionPlan plan, int value) {
+        var local = FIRST_VALUE_LOCAL + value;
+
+        switch (plan.getValueKind(value)) {
+            case ExecutionPlan.FLOAT_VALUE -> {
+                code.fload(local);
+                code.invokestatic(code.pool.methodRef("java/lang/Float", "valueOf", "(F)Ljava/lang/Float;"));
+            }
+
+            case ExecutionPlan.INT_VALUE -> {
+                code.iload(local);
+                code.invokestatic(code.pool.methodRef("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;"));
+            }
+
+            default -> code.aload(local);
+        }
+    }
+
+    private static void writeMethod(ByteBuffer methods, ConstantPool pool, int access, String name,
+            String descriptor, Code code, int maxStack, int maxLocals) {
+        methods.u2(access);
+        methods.u2(pool.utf8(name));
+        methods.u2(pool.utf8(descriptor));
+        methods.u2(1);
+
+        methods.u2(pool.utf8("Code"));
+        methods.u4(12 + code.bytes.size);
+        methods.u2(maxStack);
+        methods.u2(maxLocals);
+        methods.u4(code.bytes.size);
+        methods.append(code.bytes);
+        methods.u2(0);
+        methods.u2(0);
+    }
+}
@@ -0,0 +1,130 @@
+package net.whg.graph;
+
+import java.util.Arrays;
+
+import net.whg.util.Hashing;
+
+/**
+ * The compact, fully built form of a graph. Nodes are stored as dense indices
+ * into a node type array and connections are packed into a flat int array, so
+ * building this form never creates per-node or per-connection objects.
+ */
+final class GraphData {
+    static final int STRIDE = 4;
+
+    private final NodeType[] nodeTypes;
+    private final int[] connections;
+    private final int[] slotOffsets;
+    private final int[] slotConnections;
+
+    /**
+     * Creates a new GraphData instance.
+     * 
+     * @param nodeTypes   - The node type of each node, indexed by node.
+     * @param connections - The packed connections. Each connection is stored as
+     *                    {@link #STRIDE} consecutive values: node A, output index
+     *                    of node A, node B, and input index of node B.
+     */
+    GraphData(NodeType[] nodeTypes, int[] connections) {
+        this.nodeTypes = nodeTypes;
+        this.connections = connections;
+
+        slotOffsets = new int[nodeTypes.length + 1];
+        for (var i = 0; i < nodeTypes.length; i++)
+            slotOffsets[i + 1] = slotOffsets[i] + nodeTypes[i].getInputCount();
+
+        slotConnections = new int[slotOffsets[nodeTypes.length]];
+        Arrays.fill(slotConnections, -1);
+
+        var connectionCount = connections.length / STRIDE;
+        for (var i = 0; i < connectionCount; i++)
+            slotConnections[slotOffsets[nodeB(i)] + bIndex(i)] = i;
+    }
+
+    /**
+     * Gets a rough estimate of the number of bytes used by this graph data,
+     * assuming a 64-bit JVM with compressed object pointers.
+     * 
+     * @return The estimated size in bytes.
+     */
+    long estimateByteSize() {
+        return 32 + 16L * 4 + 4L * (nodeTypes.length + connections.length + slotOffsets.length
+                + slotConnections.length);
+    }
+
+    int nodeCount() {
+        return nodeTypes.length;
+    }
+
+    int connectionCount() {
+        return connections.length / STRIDE;
+    }
+
+    NodeType nodeType(int node) {
+        return nodeTypes[node];
+    }
+
+    int nodeA(int connection) {
+        return connections[connection * STRIDE];
+    }
+
+    int aIndex(int connection) {
+        return connections[connection * STRIDE + 1];
+    }
+
+    int nodeB(int connection) {
+        return connections[connection * STRIDE + 2];
+    }
+
+    int bIndex(int connection) {
+        return connections[connection * STRIDE + 3];
+    }
+
+    /**
+     * Gets the connection that fills the given input argument of a node.
+     * 
+     * @param node  - The node index.
+     * @param index - The input argument index.
+     * @return The connection index, or -1 if the input argument is not yet
+     *         connected.
+     */
+    int inputConnection(int node, int index) {
+        return slotConnections[slotOffsets[node] + index];
+    }
+
+    /**
+     * Gets the hash of the cone of a node. The hash covers the type of the node
+     * and, for each input argument in order, the cone hash and output index of
+     * the node feeding it. Nodes with the same hash compute the same
+     * subexpression, no matter which graph they belong to.
+     * 
+     * @param node - The node index.
+     * @param memo - The cone hashes computed so far, indexed by node, where 0
+     *             marks a hash that has not been computed yet.
+     * @return The cone hash, which is never 0.
+     * @throws IllegalStateException If an input argument in the cone of the node
+     *                               is not connected.
+     */
+    long coneHash(int node, long[] memo) {
+        if (memo[node] != 0)
+            return memo[node];
+
+        var type = nodeTypes[node];
+        var hash = Hashing.mix(Hashing.start(), type.getSignatureHash());
+
+        for (var slot = 0; slot < type.getInputCount(); slot++) {
+            var connection = inputConnection(node, slot);
+            if (connection == -1)
+                throw new IllegalStateException("Graph is not complete!");
+
+            hash = Hashing.mix(hash, coneHash(nodeA(connection), memo));
+            hash = Hashing.mix(hash, aIndex(connection));
+        }
+
+        if (hash == 0)
+            hash = 1;
+
+        memo[node] = hash;
+        return hash;
+    }
+}
@@ -0,0 +1,27 @@
+package net.whg.graph;
+
+/**
+ * Describes a single connection that can be added to a graph, without creating
+ * the child graph itself. Each move fills the next open input slot of a graph,
+ * either from an output of an existing node or from an output of a new node.
+ * Moves are cheap to create, so they can be judged before the child graph is
+ * built with {@link Graph#applyMove(Move)}.
+ * 
+ * @param node        - The node that owns the input slot to fill.
+ * @param index       - The input argument index of the slot to fill.
+ * @param sourceNode  - The node whose output is connected to the slot. For new
+ *                    nodes, this is the index the new node will get.
+ * @param outputIndex - The output argument index of the source node.
+ * @param nodeType    - The type of the new node, or null if the source node
+ *                    already exists.
+ */
+public record Move(int node, int index, int sourceNode, int outputIndex, NodeType nodeType) {
+    /**
+     * Checks whether or not this move adds a new node to the graph.
+     * 
+     * @return True if this move adds a new node.
+     */
+    public boolean addsNode() {
+        return nodeType != null;
+    }
+}
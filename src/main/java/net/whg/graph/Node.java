@@ -4,20 +4,39 @@ import java.util.UUID;
 
 /**
  * Represents a node instance that exists on a graph. It is meant to show how
- * data should be processed as it moves forward through a graph.
+ * data should be processed as it moves forward through a graph. Node instances
+ * are lightweight views over the compact storage of a graph and are only
+ * created when requested.
  */
 public class Node {
     private final NodeType type;
-    private final UUID uuid;
+    private final int index;
+    private final long lineage;
 
     /**
-     * Creates a new Node instance.
+     * Creates a new Node instance that does not belong to any graph. The node
+     * gets an index of -1 and a UUID that is unique within this run.
      * 
      * @param type - The type of node.
+     * @deprecated Nodes are views over the compact storage of a graph. Use
+     *             {@link Graph#getAllNodes()} to get the nodes of a graph instead.
      */
+    @Deprecated
     public Node(NodeType type) {
+        this(type, -1, Graph.nextLineageId());
+    }
+
+    /**
+     * Creates a new Node instance.
+     * 
+     * @param type    - The type of node.
+     * @param index   - The index of this node within the graph.
+     * @param lineage - The identifier of the base graph this node descends from.
+     */
+    Node(NodeType type, int index, long lineage) {
         this.type = type;
-        this.uuid = UUID.randomUUID();
+        this.index = index;
+        this.lineage = lineage;
     }
 
     /**
@@ -30,11 +49,23 @@ public class Node {
     }
 
     /**
-     * Gets the UUID of this node instance.
+     * Gets the index of this node within the graph. Node indices are dense and
+     * stable; a node keeps the same index in all child graphs.
+     * 
+     * @return The node index, or -1 if this node does not belong to a graph.
+     */
+    public int index() {
+        return index;
+    }
+
+    /**
+     * Gets the UUID of this node instance. The UUID is derived from the base graph
+     * and the node index, so the same node within a parent graph and any of its
+     * child graphs shares the same UUID.
      * 
      * @return The UUID.
      */
     public UUID uuid() {
-        return uuid;
+        return new UUID(lineage, index);
     }
 }
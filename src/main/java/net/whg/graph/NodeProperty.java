@@ -0,0 +1,38 @@
+package net.whg.graph;
+
+import java.util.List;
+
+import net.whg.solver.SearchSpace;
+
+/**
+ * An algebraic property that a node type can declare. Properties tell the
+ * search which graphs are only rearrangements of one another, so
+ * {@link Graph#getMoves(List, SearchSpace)} can skip all but one ordering of
+ * them. A property that does not actually hold for a node type
+ * removes reachable functions from the search, so they should only be declared
+ * when they are known to be true.
+ */
+public enum NodeProperty {
+    /**
+     * The order of the input arguments does not change the result. Only input
+     * arguments next to each other with the same data type are treated as
+     * interchangeable.
+     */
+    COMMUTATIVE,
+
+    /**
+     * The node type is a binary operation where {@code (a * b) * c} is equal to
+     * {@code a * (b * c)}. Complete graphs only lean to the left where the inner
+     * node is shared with another consumer, as the rewrite would need an extra
+     * node otherwise.
+     */
+    ASSOCIATIVE,
+
+    /**
+     * Applying the node type again does not change the result. For node types
+     * with one input argument this means that {@code f(f(x))} is equal to
+     * {@code f(x)}, and for node types with several input arguments this means
+     * that {@code f(x, x)} is equal to {@code x}.
+     */
+    IDEMPOTENT
+}
@@ -1,6 +1,11 @@
 package net.whg.graph;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import net.whg.util.Hashing;
 
 /**
  * Represents an executable node type that can be added to a graph. Node types
@@ -11,6 +16,10 @@ public final class NodeType {
     private final DataType[] inputs;
     private final DataType[] outputs;
     private final Executor executor;
+    private final PrimitiveExecutor primitiveExecutor;
+    private final BatchExecutor batchExecutor;
+    private final Set<NodeProperty> properties;
+    private final long signatureHash;
 
     /**
      * Creates a new NodeType instance.
@@ -23,13 +32,124 @@ public final class NodeType {
      *                                  outputs are both equal to 0.
      */
     public NodeType(String name, Executor executor, DataType[] inputs, DataType[] outputs) {
+        this(name, executor, null, inputs, outputs);
+    }
+
+    /**
+     * Creates a new NodeType instance with a batch executor, which is used
+     * instead of the executor when a graph is executed over many rows at once.
+     * 
+     * @param name          - The name of this node type.
+     * @param executor      - The executor for this node type.
+     * @param batchExecutor - The batch executor for this node type, or null to
+     *                      call the executor once per row.
+     * @param inputs        - The array of inputs argument data types, in order.
+     * @param outputs       - The array of output argument data types, in order.
+     * @throws IllegalArgumentException If the number of inputs and the number of
+     *                                  outputs are both equal to 0.
+     */
+    public NodeType(String name, Executor executor, BatchExecutor batchExecutor, DataType[] inputs,
+            DataType[] outputs) {
+        this(name, executor, null, batchExecutor, inputs, outputs);
+    }
+
+    /**
+     * Creates a new NodeType instance with a primitive executor. The generic
+     * executor of this node type is created from the primitive executor, and
+     * execution plans call the primitive executor directly to avoid boxing.
+     * 
+     * @param name          - The name of this node type.
+     * @param executor      - The primitive executor for this node type.
+     * @param batchExecutor - The batch executor for this node type, or null to
+     *                      call the primitive executor once per row.
+     * @param inputs        - The array of inputs argument data types, in order.
+     * @param outputs       - The array of output argument data types, in order.
+     * @throws IllegalArgumentException If the primitive executor does not take the
+     *                                  same number of inputs as this node type, or
+     *                                  if this node type does not have exactly one
+     *                                  output.
+     */
+    public NodeType(String name, PrimitiveExecutor executor, BatchExecutor batchExecutor, DataType[] inputs,
+            DataType[] outputs) {
+        this(name, executor.boxed(), executor, batchExecutor, inputs, outputs);
+
+        if (executor.getInputCount() != inputs.length || outputs.length != 1)
+            throw new IllegalArgumentException("Primitive executor does not match NodeType arguments!");
+    }
+
+    private NodeType(String name, Executor executor, PrimitiveExecutor primitiveExecutor,
+            BatchExecutor batchExecutor, DataType[] inputs, DataType[] outputs) {
         if (inputs.length == 0 && outputs.length == 0)
             throw new IllegalArgumentException("NodeType has not inputs or outputs!");
 
         this.name = name;
         this.executor = executor;
+        this.primitiveExecutor = primitiveExecutor;
+        this.batchExecutor = batchExecutor;
         this.inputs = Arrays.copyOf(inputs, inputs.length);
         this.outputs = Arrays.copyOf(outputs, outputs.length);
+        this.properties = Collections.unmodifiableSet(EnumSet.noneOf(NodeProperty.class));
+        this.signatureHash = Hashing.of(toString());
+    }
+
+    private NodeType(NodeType base, Set<NodeProperty> properties) {
+        this.name = base.name;
+        this.executor = base.executor;
+        this.primitiveExecutor = base.primitiveExecutor;
+        this.batchExecutor = base.batchExecutor;
+        this.inputs = base.inputs;
+        this.outputs = base.outputs;
+        this.properties = Collections.unmodifiableSet(properties);
+        this.signatureHash = base.signatureHash;
+    }
+
+    /**
+     * Creates a copy of this node type that declares the given algebraic
+     * properties, in addition to any properties this node type already declares.
+     * The properties do not change the signature hash of the node type, as they
+     * only change which graphs are generated, not how graphs are encoded.
+     * 
+     * @param properties - The properties to declare.
+     * @return The new node type.
+     * @throws IllegalArgumentException If this node type is commutative with less
+     *                                  than two input arguments, associative
+     *                                  without exactly two input arguments, or
+     *                                  idempotent without any input arguments.
+     */
+    public NodeType withProperties(NodeProperty... properties) {
+        var set = EnumSet.noneOf(NodeProperty.class);
+        set.addAll(this.properties);
+        set.addAll(Arrays.asList(properties));
+
+        if (set.contains(NodeProperty.COMMUTATIVE) && inputs.length < 2)
+            throw new IllegalArgumentException("Commutative node types need at least two inputs!");
+
+        if (set.contains(NodeProperty.ASSOCIATIVE) && inputs.length != 2)
+            throw new IllegalArgumentException("Associative node types need exactly two inputs!");
+
+        if (set.contains(NodeProperty.IDEMPOTENT) && inputs.length == 0)
+            throw new IllegalArgumentException("Idempotent node types need at least one input!");
+
+        return new NodeType(this, set);
+    }
+
+    /**
+     * Checks whether or not this node type declares the given property.
+     * 
+     * @param property - The property to check for.
+     * @return True if this node type declares the property.
+     */
+    public boolean hasProperty(NodeProperty property) {
+        return properties.contains(property);
+    }
+
+    /**
+     * Gets the algebraic properties that this node type declares.
+     * 
+     * @return An unmodifiable set of properties.
+     */
+    public Set<NodeProperty> getProperties() {
+        return properties;
     }
 
     /**
@@ -141,4 +261,33 @@ public final class NodeType {
     public Executor getExecutor() {
         return executor;
     }
+
+    /**
+     * Gets the primitive executor for this node type.
+     * 
+     * @return The primitive executor, or null if this node type only has a
+     *         generic executor.
+     */
+    public PrimitiveExecutor getPrimitiveExecutor() {
+        return primitiveExecutor;
+    }
+
+    /**
+     * Gets the batch executor for this node type.
+     * 
+     * @return The batch executor, or null if this node type does not have one.
+     */
+    public BatchExecutor getBatchExecutor() {
+        return batchExecutor;
+    }
+
+    /**
+     * Gets a hash of the name and argument types of this node type. Unlike the
+     * identity hash code, this value is the same between runs.
+     * 
+     * @return The signature hash.
+     */
+    public long getSignatureHash() {
+        return signatureHash;
+    }
 }
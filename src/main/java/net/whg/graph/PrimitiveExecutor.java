@@ -0,0 +1,48 @@
+package net.whg.graph;
+
+/**
+ * An executor that works on primitive values instead of boxed objects. Node
+ * types may carry a primitive executor alongside their generic
+ * {@link Executor}, in which case execution plans call the primitive executor
+ * directly and store its result without boxing. Only the primitive executor
+ * types defined in this package are recognized by the execution engine:
+ * {@link FloatUnaryExecutor}, {@link FloatBinaryExecutor},
+ * {@link FloatToIntExecutor}, and {@link IntBinaryExecutor}.
+ */
+public interface PrimitiveExecutor {
+    /**
+     * Gets the number of input arguments this executor takes. Primitive executors
+     * always have a single output argument.
+     * 
+     * @return The number of inputs.
+     */
+    int getInputCount();
+
+    /**
+     * Creates a generic executor that unboxes its inputs, calls this executor, and
+     * boxes the result.
+     * 
+     * @return The generic executor.
+     */
+    Executor boxed();
+
+    /**
+     * Unboxes a Float or Integer value into a float.
+     * 
+     * @param value - The boxed value.
+     * @return The float value.
+     */
+    static float toFloat(Object value) {
+        return value instanceof Float f ? f : (int) value;
+    }
+
+    /**
+     * Unboxes an Integer value into an int.
+     * 
+     * @param value - The boxed value.
+     * @return The int value.
+     */
+    static int toInt(Object value) {
+        return (int) value;
+    }
+}
@@ -0,0 +1,110 @@
+package net.whg.graph;
+
+import java.util.Arrays;
+
+/**
+ * A persistent reachability index for a graph. For every node, a bitset stores
+ * all nodes that the node's outputs flow into, directly or indirectly. Adding a
+ * connection only copies the rows of the nodes that gain new descendants; all
+ * other rows are shared with the index the new one was derived from.
+ */
+final class Reachability {
+    private static final long[] EMPTY = new long[0];
+
+    private final long[][] descendants;
+
+    private Reachability(long[][] descendants) {
+        this.descendants = descendants;
+    }
+
+    /**
+     * Builds a reachability index from scratch for the given graph data.
+     * 
+     * @param data - The graph to index.
+     * @return The new index.
+     */
+    static Reachability of(GraphData data) {
+        var rows = new long[data.nodeCount()][];
+        Arrays.fill(rows, EMPTY);
+
+        for (var i = 0; i < data.connectionCount(); i++)
+            connect(rows, data.nodeA(i), data.nodeB(i));
+
+        return new Reachability(rows);
+    }
+
+    /**
+     * Creates a new index with an additional connection from node A to node B. If
+     * node A is a new node, it is appended to the index.
+     * 
+     * @param nodeA - The node the connection is moving out of.
+     * @param nodeB - The node the connection is moving in to.
+     * @return The new index. This index is not modified.
+     */
+    Reachability withConnection(int nodeA, int nodeB) {
+        var nodeCount = Math.max(descendants.length, nodeA + 1);
+        var rows = Arrays.copyOf(descendants, nodeCount);
+
+        for (var i = descendants.length; i < nodeCount; i++)
+            rows[i] = EMPTY;
+
+        connect(rows, nodeA, nodeB);
+        return new Reachability(rows);
+    }
+
+    /**
+     * Checks whether data from node A flows into node B, or if both nodes are the
+     * same node. A connection from node B to node A would create a cycle if this
+     * returns true.
+     * 
+     * @param nodeA - The upstream node.
+     * @param nodeB - The downstream node.
+     * @return True if node B is node A or one of its descendants.
+     */
+    boolean reaches(int nodeA, int nodeB) {
+        return nodeA == nodeB || has(descendants[nodeA], nodeB);
+    }
+
+    /**
+     * Gets a rough estimate of the number of bytes used by this index, assuming a
+     * 64-bit JVM with compressed object pointers. Rows that are shared with other
+     * indices are counted as well.
+     * 
+     * @return The estimated size in bytes.
+     */
+    long estimateByteSize() {
+        var size = 16 + 16 + 4L * descendants.length;
+        for (var row : descendants)
+            size += row == EMPTY ? 0 : 16 + 8L * row.length;
+
+        return size;
+    }
+
+    private static void connect(long[][] rows, int nodeA, int nodeB) {
+        var added = set(rows[nodeB], nodeB);
+
+        for (var i = 0; i < rows.length; i++) {
+            if (i == nodeA || has(rows[i], nodeA))
+                rows[i] = or(rows[i], added);
+        }
+    }
+
+    private static boolean has(long[] row, int bit) {
+        var word = bit >>> 6;
+        return word < row.length && (row[word] & (1L << bit)) != 0;
+    }
+
+    private static long[] set(long[] row, int bit) {
+        var copy = Arrays.copyOf(row, Math.max(row.length, (bit >>> 6) + 1));
+        copy[bit >>> 6] |= 1L << bit;
+        return copy;
+    }
+
+    private static long[] or(long[] a, long[] b) {
+        var copy = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (var i = 0; i < b.length; i++)
+            copy[i] |= b[i];
+
+        return copy;
+    }
+}
@@ -0,0 +1,206 @@
+package net.whg.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size, lock free cache of node outputs that is shared between all
+ * graphs executed while it is bound to a thread. Graphs in a search tree share
+ * most of their structure with their siblings and parents, so the same
+ * subexpression is often executed with the same inputs many times over. Each
+ * node is identified by the hash of its cone, which covers the node type and,
+ * recursively, every node and output index feeding into it. A node only ever
+ * needs to be executed once for the same cone and graph inputs, no matter which
+ * graph it belongs to.
+ * <p>
+ * The cache is direct mapped: each key has exactly one slot it can be stored
+ * in, and storing a key replaces whatever entry was in that slot before. Graph
+ * inputs are compared by equality, but two different cones are only confused
+ * with each other if their 64-bit hashes collide. Node types are identified by
+ * their signature, so a cache should only be shared between graphs of the same
+ * environment.
+ * <p>
+ * A lookup costs about as much as executing a few dozen simple arithmetic
+ * nodes, mostly from cache misses and allocating entries. This cache therefore
+ * only pays off when node executors are expensive, and should be left disabled
+ * otherwise.
+ */
+public final class SubexpressionCache {
+    private static final ThreadLocal<SubexpressionCache> BOUND = new ThreadLocal<>();
+    private static final AtomicInteger BOUND_THREADS = new AtomicInteger();
+
+    private record Entry(long coneHash, int inputsHash, Object[] inputs, Object[] outputs) {
+    }
+
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+    private final int minConeSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a new SubexpressionCache that stores the outputs of every node with
+     * at least 2 nodes in its cone.
+     * 
+     * @param capacity - The number of slots in this cache. This is rounded up to
+     *                 the next power of two.
+     * @throws IllegalArgumentException If the capacity is less than 1.
+     */
+    public SubexpressionCache(int capacity) {
+        this(capacity, 2);
+    }
+
+    /**
+     * Creates a new SubexpressionCache.
+     * 
+     * @param capacity    - The number of slots in this cache. This is rounded up
+     *                    to the next power of two.
+     * @param minConeSize - The minimum number of nodes, not counting the input
+     *                    node, that must be in the cone of a node for its outputs
+     *                    to be cached. Smaller cones are cheaper to execute again
+     *                    than to look up.
+     * @throws IllegalArgumentException If the capacity is less than 1, or if the
+     *                                  minimum cone size is less than 1.
+     */
+    public SubexpressionCache(int capacity, int minConeSize) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1!");
+
+        if (minConeSize < 1)
+            throw new IllegalArgumentException("Minimum cone size must be at least 1!");
+
+        var size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+
+        table = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        this.minConeSize = minConeSize;
+    }
+
+    /**
+     * Binds a cache to the current thread. While a cache is bound, every graph
+     * executed on this thread reads and writes node outputs through it.
+     * 
+     * @param cache - The cache to bind, or null to unbind the current cache.
+     * @return The cache that was previously bound to this thread, or null if
+     *         there was none.
+     */
+    public static SubexpressionCache bind(SubexpressionCache cache) {
+        var previous = BOUND.get();
+
+        if (cache == null)
+            BOUND.remove();
+        else
+            BOUND.set(cache);
+
+        if (previous == null && cache != null)
+            BOUND_THREADS.incrementAndGet();
+        else if (previous != null && cache == null)
+            BOUND_THREADS.decrementAndGet();
+
+        return previous;
+    }
+
+    /**
+     * Gets the cache that is bound to the current thread. The thread local is only
+     * read while a cache is bound to at least one thread, so this is cheap when no
+     * caches are in use.
+     * 
+     * @return The bound cache, or null if there is none.
+     */
+    static SubexpressionCache current() {
+        return BOUND_THREADS.get() == 0 ? null : BOUND.get();
+    }
+
+    /**
+     * Looks up the outputs of a node.
+     * 
+     * @param coneHash   - The cone hash of the node.
+     * @param inputs     - The values passed out of the input node of the graph.
+     * @param inputsHash - The hash of the input values.
+     * @return The output values of the node, or null if they are not in this
+     *         cache. The returned array must not be modified.
+     */
+    Object[] get(long coneHash, Object[] inputs, int inputsHash) {
+        var entry = table.get(slot(coneHash, inputsHash));
+
+        if (entry != null && entry.coneHash == coneHash && entry.inputsHash == inputsHash
+                && Arrays.equals(entry.inputs, inputs)) {
+            hits.increment();
+            return entry.outputs;
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores the outputs of a node.
+     * 
+     * @param coneHash   - The cone hash of the node.
+     * @param inputs     - The values passed out of the input node of the graph.
+     *                   This array must not be modified afterwards.
+     * @param inputsHash - The hash of the input values.
+     * @param outputs    - The output values of the node. This array must not be
+     *                   modified afterwards.
+     */
+    void put(long coneHash, Object[] inputs, int inputsHash, Object[] outputs) {
+        table.set(slot(coneHash, inputsHash), new Entry(coneHash, inputsHash, inputs, outputs));
+    }
+
+    private int slot(long coneHash, int inputsHash) {
+        var hash = coneHash ^ inputsHash * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Gets the minimum number of nodes that must be in the cone of a node for its
+     * outputs to be cached.
+     * 
+     * @return The minimum cone size.
+     */
+    public int getMinConeSize() {
+        return minConeSize;
+    }
+
+    /**
+     * Gets the number of node outputs that were found in this cache.
+     * 
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of node outputs that were not found in this cache.
+     * 
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the fraction of lookups that were found in this cache.
+     * 
+     * @return The hit rate, between 0 and 1, or 0 if there were no lookups.
+     */
+    public float getHitRate() {
+        var hits = getHits();
+        var total = hits + getMisses();
+        return total == 0 ? 0 : (float) hits / total;
+    }
+
+    /**
+     * Gets the number of slots in this cache.
+     * 
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return table.length();
+    }
+}
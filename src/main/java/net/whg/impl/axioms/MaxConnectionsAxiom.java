@@ -1,14 +1,16 @@
 package net.whg.impl.axioms;
 
 import net.whg.graph.Graph;
-import net.whg.solver.Axiom;
+import net.whg.graph.Move;
+import net.whg.solver.IncrementalAxiom;
 
 /**
  * A simple axiom that prevents more than an assigned number of connections to
  * exist within a graph. This useful for preventing graphs from growing too
- * large.
+ * large. The number of connections a graph will have once it is complete is
+ * kept by the graph itself, so this axiom does not need any state.
  */
-public class MaxConnectionsAxiom implements Axiom {
+public class MaxConnectionsAxiom implements IncrementalAxiom<Boolean> {
     private final int maxConnections;
 
     /**
@@ -22,12 +24,13 @@ public class MaxConnectionsAxiom implements Axiom {
     }
 
     @Override
-    public boolean verifyGraph(Graph graph) {
-        var minConnections = 0;
-
-        for (var node : graph.getAllNodes())
-            minConnections += node.type().getInputCount();
+    public Boolean getState(Graph graph) {
+        return graph.getSlotCount() <= maxConnections ? Boolean.TRUE : null;
+    }
 
-        return minConnections <= maxConnections;
+    @Override
+    public Boolean verifyMove(Boolean parentState, Graph parent, Move move) {
+        var slots = parent.getSlotCount() + (move.addsNode() ? move.nodeType().getInputCount() : 0);
+        return slots <= maxConnections ? Boolean.TRUE : null;
     }
 }
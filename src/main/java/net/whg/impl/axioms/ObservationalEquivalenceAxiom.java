@@ -0,0 +1,249 @@
+package net.whg.impl.axioms;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.whg.graph.DataType;
+import net.whg.graph.Graph;
+import net.whg.graph.NodeType;
+import net.whg.solver.Axiom;
+import net.whg.util.Hashing;
+
+/**
+ * An axiom that removes graphs which compute something another graph has
+ * already computed in a different way. Whenever a connection completes the cone
+ * of a node, that cone is executed over a fixed set of sample inputs and the
+ * resulting output columns are hashed into a fingerprint. The smallest cone
+ * seen with a given fingerprint becomes its owner, and any graph that later
+ * completes a structurally different cone with the same fingerprint, that is
+ * not smaller than the owner, is rejected. This removes graphs such as
+ * <code>Add(b, a)</code> once <code>Add(a, b)</code> has been seen. The cone of
+ * the output node is fingerprinted separately from the other nodes, so complete
+ * graphs are only compared against other complete graphs.
+ * <p>
+ * This pruning is not exact. Two cones that agree on every sample input are
+ * assumed to agree on all inputs, and connections to nodes inside a rejected
+ * cone are never explored. Cones that throw an exception on the samples are
+ * never rejected. The fingerprint table is direct mapped, so an owner may be
+ * forgotten and replaced by a later cone with the same behavior. Owners are
+ * replaced with a compare-and-set, so of two equivalent cones verified at the
+ * same time, only one is accepted.
+ */
+public class ObservationalEquivalenceAxiom implements Axiom {
+    private record Owner(long fingerprint, long coneHash, int coneSize) {
+    }
+
+    private final Object[] samples;
+    private final int rows;
+    private final AtomicReferenceArray<Owner> owners;
+    private final int mask;
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+
+    /**
+     * Creates a new ObservationalEquivalenceAxiom with uniformly random float
+     * sample inputs between -10 and 10. This is only suited to input nodes whose
+     * outputs are all floats; use
+     * {@link #ObservationalEquivalenceAxiom(NodeType, int, long, int)} for input
+     * nodes with other output types.
+     * 
+     * @param inputCount - The number of outputs of the input node.
+     * @param rows       - The number of sample inputs to execute each cone on.
+     * @param seed       - The seed used to generate the sample inputs.
+     * @param capacity   - The number of fingerprints that can be remembered. This
+     *                   is rounded up to the next power of two.
+     * @throws IllegalArgumentException If the number of rows or the capacity is
+     *                                  less than 1.
+     */
+    public ObservationalEquivalenceAxiom(int inputCount, int rows, long seed, int capacity) {
+        this(randomFloats(inputCount, rows, seed), rows, capacity);
+    }
+
+    /**
+     * Creates a new ObservationalEquivalenceAxiom with random sample inputs that
+     * match the output data types of the given input node type. Float outputs
+     * get uniformly random floats between -10 and 10, and Integer outputs get
+     * uniformly random integers between -10 and 10.
+     * 
+     * @param inputNodeType - The input node type of the environment.
+     * @param rows          - The number of sample inputs to execute each cone
+     *                      on.
+     * @param seed          - The seed used to generate the sample inputs.
+     * @param capacity      - The number of fingerprints that can be remembered.
+     *                      This is rounded up to the next power of two.
+     * @throws IllegalArgumentException If the number of rows or the capacity is
+     *                                  less than 1, or if an output of the input
+     *                                  node type is neither a Float nor an
+     *                                  Integer. Such input nodes need explicit
+     *                                  sample columns.
+     */
+    public ObservationalEquivalenceAxiom(NodeType inputNodeType, int rows, long seed, int capacity) {
+        this(randomSamples(inputNodeType, rows, seed), rows, capacity);
+    }
+
+    /**
+     * Creates a new ObservationalEquivalenceAxiom.
+     * 
+     * @param samples  - The sample input columns, one for each output of the
+     *                 input node. See {@link net.whg.graph.Columns}.
+     * @param rows     - The number of rows in each sample column.
+     * @param capacity - The number of fingerprints that can be remembered. This
+     *                 is rounded up to the next power of two.
+     * @throws IllegalArgumentException If the number of rows or the capacity is
+     *                                  less than 1.
+     */
+    public ObservationalEquivalenceAxiom(Object[] samples, int rows, int capacity) {
+        if (rows < 1)
+            throw new IllegalArgumentException("Must have at least 1 sample row!");
+
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1!");
+
+        var size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+
+        this.samples = samples.clone();
+        this.rows = rows;
+        owners = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    private static Object[] randomSamples(NodeType inputNodeType, int rows, long seed) {
+        var random = new Random(seed);
+        var columns = new Object[inputNodeType.getOutputCount()];
+
+        for (var i = 0; i < columns.length; i++) {
+            var name = inputNodeType.getOutput(i).getName();
+
+            if (name.equals("Float")) {
+                var column = new float[rows];
+                for (var row = 0; row < column.length; row++)
+                    column[row] = random.nextFloat() * 20 - 10;
+
+                columns[i] = column;
+            } else if (name.equals("Integer")) {
+                var column = new int[rows];
+                for (var row = 0; row < column.length; row++)
+                    column[row] = random.nextInt(21) - 10;
+
+                columns[i] = column;
+            } else {
+                throw new IllegalArgumentException("Cannot create samples for data type " + name + "!");
+            }
+        }
+
+        return columns;
+    }
+
+    private static Object[] randomFloats(int inputCount, int rows, long seed) {
+        var random = new Random(seed);
+        var columns = new Object[inputCount];
+
+        for (var i = 0; i < inputCount; i++) {
+            var column = new float[rows];
+            for (var row = 0; row < rows; row++)
+                column[row] = random.nextFloat() * 20 - 10;
+
+            columns[i] = column;
+        }
+
+        return columns;
+    }
+
+    @Override
+    public boolean verifyGraph(Graph graph) {
+        verified.increment();
+
+        for (var node : graph.getCompletedNodes()) {
+            if (!isOwner(graph, node)) {
+                pruned.increment();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isOwner(Graph graph, int node) {
+        var type = graph.getNodeType(node);
+        var outputNode = type.isOutputType();
+        var columns = new Object[outputNode ? type.getInputCount() : type.getOutputCount()];
+
+        try {
+            graph.executeBatch(node, samples, columns, rows);
+        } catch (RuntimeException e) {
+            return true;
+        }
+
+        var fingerprint = Hashing.mix(Hashing.start(), outputNode ? 1 : 0);
+        for (var i = 0; i < columns.length; i++) {
+            DataType dataType = outputNode ? type.getInput(i) : type.getOutput(i);
+            fingerprint = Hashing.mix(fingerprint, Hashing.of(dataType.getName()));
+            fingerprint = hashColumn(fingerprint, columns[i]);
+        }
+
+        var coneHash = graph.getConeHash(node);
+        var coneSize = graph.getConeSize(node);
+        var slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+
+        var candidate = new Owner(fingerprint, coneHash, coneSize);
+
+        while (true) {
+            var owner = owners.get(slot);
+            if (owner != null && owner.fingerprint == fingerprint
+                    && (owner.coneHash == coneHash || owner.coneSize <= coneSize))
+                return owner.coneHash == coneHash;
+
+            if (owners.compareAndSet(slot, owner, candidate))
+                return true;
+        }
+    }
+
+    private long hashColumn(long hash, Object column) {
+        if (column instanceof float[] floats) {
+            for (var row = 0; row < rows; row++)
+                hash = Hashing.mix(hash, Float.floatToIntBits(floats[row]));
+        } else if (column instanceof int[] ints) {
+            for (var row = 0; row < rows; row++)
+                hash = Hashing.mix(hash, ints[row]);
+        } else {
+            var objects = (Object[]) column;
+            for (var row = 0; row < rows; row++)
+                hash = Hashing.mix(hash, objects[row] == null ? 0 : objects[row].hashCode());
+        }
+
+        return hash;
+    }
+
+    /**
+     * Gets the number of graphs this axiom has verified.
+     * 
+     * @return The number of verified graphs.
+     */
+    public long getVerified() {
+        return verified.sum();
+    }
+
+    /**
+     * Gets the number of graphs this axiom has rejected as equivalent to a graph
+     * that was already seen.
+     * 
+     * @return The number of rejected graphs.
+     */
+    public long getPruned() {
+        return pruned.sum();
+    }
+
+    /**
+     * Gets the fraction of verified graphs that were rejected. This is the
+     * fraction of the branching factor of the search that this axiom removes.
+     * 
+     * @return The prune rate, between 0 and 1, or 0 if no graphs were verified.
+     */
+    public float getPruneRate() {
+        var total = getVerified();
+        return total == 0 ? 0 : (float) getPruned() / total;
+    }
+}
@@ -0,0 +1,250 @@
+package net.whg.impl.fitness;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.whg.graph.Graph;
+import net.whg.solver.FitnessEval;
+
+/**
+ * A fitness evaluator that runs each graph over a suite of test cases. The
+ * fitness of a graph is the negated sum of its errors over all test cases, so
+ * a graph that passes every test case has a fitness of 0.
+ * <p>
+ * As errors are never negative, the fitness of a graph can only go down with
+ * each test case that is run. Once it falls below the bound, the remaining test
+ * cases are skipped and the fitness so far is returned, which is still below
+ * the bound. The bound is the configured threshold, or the best fitness of all
+ * fully evaluated graphs, whichever is higher. Graphs that were cut short
+ * therefore always rank below the best graph, but not necessarily in the right
+ * order among themselves. Bounding by the best fitness is only valid when this
+ * is the only fitness evaluator of the environment, as other evaluators could
+ * otherwise make up for the difference.
+ * <p>
+ * Test cases are run in order of their average error across all graphs so far,
+ * highest first, so the cases that most graphs fail on are run first and cut
+ * those graphs short as early as possible. The order is updated periodically.
+ * Graphs that throw an exception while running a test case get a fitness of
+ * negative infinity.
+ */
+public class TestSuiteFitness implements FitnessEval {
+    private static final int REORDER_INTERVAL = 1024;
+
+    /**
+     * A single test case.
+     * 
+     * @param inputs   - The values to pass out of the input node.
+     * @param expected - The values the output node is expected to receive.
+     */
+    public record TestCase(Object[] inputs, Object[] expected) {
+    }
+
+    /**
+     * Measures how far the outputs of a graph are from the expected outputs of a
+     * test case. This function may be called from any thread.
+     */
+    @FunctionalInterface
+    public interface ErrorFunction {
+        /**
+         * Calculates the error of a single test case.
+         * 
+         * @param expected - The expected outputs.
+         * @param actual   - The outputs of the graph.
+         * @return The error, which must not be negative. 0 means the outputs are
+         *         correct.
+         */
+        float getError(Object[] expected, Object[] actual);
+    }
+
+    /**
+     * Sums the absolute differences between numeric outputs, counting NaN as an
+     * infinite error. Outputs that are not numbers add an error of 1 if they are
+     * not equal.
+     */
+    public static final ErrorFunction ABSOLUTE_ERROR = (expected, actual) -> {
+        var error = 0f;
+        for (var i = 0; i < expected.length; i++) {
+            if (expected[i] instanceof Number e && actual[i] instanceof Number a) {
+                var diff = Math.abs(e.floatValue() - a.floatValue());
+                error += Float.isNaN(diff) ? Float.POSITIVE_INFINITY : diff;
+            } else if (!Objects.equals(expected[i], actual[i])) {
+                error += 1;
+            }
+        }
+
+        return error;
+    };
+
+    private final TestCase[] cases;
+    private final ErrorFunction errorFunction;
+    private final float threshold;
+    private final boolean boundByBest;
+    private final LongAdder[] runs;
+    private final DoubleAdder[] errors;
+    private final AtomicInteger bestFitness = new AtomicInteger(Float.floatToIntBits(Float.NEGATIVE_INFINITY));
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder aborted = new LongAdder();
+    private final LongAdder casesRun = new LongAdder();
+    private volatile int[] order;
+
+    /**
+     * Creates a new TestSuiteFitness that uses {@link #ABSOLUTE_ERROR} and cuts
+     * graphs short once they can no longer beat the best graph.
+     * 
+     * @param cases - The test cases to run.
+     * @throws IllegalArgumentException If there are no test cases.
+     */
+    public TestSuiteFitness(List<TestCase> cases) {
+        this(cases, ABSOLUTE_ERROR, Float.NEGATIVE_INFINITY, true);
+    }
+
+    /**
+     * Creates a new TestSuiteFitness.
+     * 
+     * @param cases         - The test cases to run.
+     * @param errorFunction - The function that measures the error of each test
+     *                      case.
+     * @param threshold     - The fitness below which graphs are cut short, or
+     *                      negative infinity to only use the best fitness.
+     * @param boundByBest   - Whether or not to also cut graphs short once they
+     *                      can no longer beat the best fully evaluated graph.
+     * @throws IllegalArgumentException If there are no test cases.
+     */
+    public TestSuiteFitness(List<TestCase> cases, ErrorFunction errorFunction, float threshold,
+            boolean boundByBest) {
+        if (cases.isEmpty())
+            throw new IllegalArgumentException("Test suite must have at least 1 test case!");
+
+        this.cases = cases.toArray(new TestCase[0]);
+        this.errorFunction = errorFunction;
+        this.threshold = threshold;
+        this.boundByBest = boundByBest;
+
+        runs = new LongAdder[this.cases.length];
+        errors = new DoubleAdder[this.cases.length];
+        order = new int[this.cases.length];
+        for (var i = 0; i < this.cases.length; i++) {
+            runs[i] = new LongAdder();
+            errors[i] = new DoubleAdder();
+            order[i] = i;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getFitness(Graph graph) {
+        evaluations.increment();
+        if (evaluations.sum() % REORDER_INTERVAL == 0)
+            reorder();
+
+        var bound = boundByBest ? Math.max(threshold, getBestFitness()) : threshold;
+        var order = this.order;
+        var error = 0.0;
+
+        for (var index : order) {
+            var testCase = cases[index];
+            var outputs = new Object[testCase.expected().length];
+
+            try {
+                graph.execute(testCase.inputs(), outputs);
+            } catch (RuntimeException e) {
+                aborted.increment();
+                return Float.NEGATIVE_INFINITY;
+            }
+
+            var caseError = errorFunction.getError(testCase.expected(), outputs);
+            if (!(caseError >= 0))
+                throw new IllegalStateException("Test case error cannot be negative!");
+
+            runs[index].increment();
+            errors[index].add(caseError);
+            casesRun.increment();
+
+            error += caseError;
+            if (-error < bound) {
+                aborted.increment();
+                return (float) -error;
+            }
+        }
+
+        var fitness = (float) -error;
+        updateBest(fitness);
+        return fitness;
+    }
+
+    private void updateBest(float fitness) {
+        var bits = Float.floatToIntBits(fitness);
+        var current = bestFitness.get();
+        while (fitness > Float.intBitsToFloat(current) && !bestFitness.compareAndSet(current, bits))
+            current = bestFitness.get();
+    }
+
+    private void reorder() {
+        var averages = new double[cases.length];
+        for (var i = 0; i < cases.length; i++) {
+            var count = runs[i].sum();
+            averages[i] = count == 0 ? Double.POSITIVE_INFINITY : errors[i].sum() / count;
+        }
+
+        order = Arrays.stream(order)
+                .boxed()
+                .sorted(Comparator.comparingDouble(i -> -averages[i]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * Gets the best fitness of all graphs that were evaluated over the whole test
+     * suite.
+     * 
+     * @return The best fitness, or negative infinity if no graph was fully
+     *         evaluated yet.
+     */
+    public float getBestFitness() {
+        return Float.intBitsToFloat(bestFitness.get());
+    }
+
+    /**
+     * Gets the number of graphs this evaluator has evaluated.
+     * 
+     * @return The number of evaluations.
+     */
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    /**
+     * Gets the number of evaluations that were cut short, either because the
+     * graph could no longer reach the bound or because it threw an exception.
+     * 
+     * @return The number of aborted evaluations.
+     */
+    public long getAborted() {
+        return aborted.sum();
+    }
+
+    /**
+     * Gets the total number of test cases that were run across all evaluations.
+     * 
+     * @return The number of test cases run.
+     */
+    public long getCasesRun() {
+        return casesRun.sum();
+    }
+
+    /**
+     * Gets the number of test cases in the suite.
+     * 
+     * @return The number of test cases.
+     */
+    public int getCaseCount() {
+        return cases.length;
+    }
+}
@@ -26,6 +26,6 @@ public class ConnectionCountHeuristic implements Heuristic {
      */
     @Override
     public float getHeuristic(Graph graph) {
-        return graph.getAllConnections().size() * weight;
+        return graph.getConnectionCount() * weight;
     }
 }
@@ -1,8 +1,37 @@
 package net.whg.impl.libs;
 
+import net.whg.graph.Columns;
+import net.whg.graph.FloatBinaryExecutor;
+import net.whg.graph.FloatToIntExecutor;
+import net.whg.graph.FloatUnaryExecutor;
+import net.whg.graph.IntBinaryExecutor;
+import net.whg.graph.NodeProperty;
+import net.whg.graph.NodeType;
 import net.whg.solver.Environment;
 
 public class Arithmetic extends Library {
+    private final boolean declareProperties;
+
+    /**
+     * Creates a new arithmetic library where the node types declare their
+     * algebraic properties.
+     */
+    public Arithmetic() {
+        this(true);
+    }
+
+    /**
+     * Creates a new arithmetic library.
+     * 
+     * @param declareProperties - Whether or not the node types declare their
+     *                          algebraic properties. Float addition and
+     *                          multiplication are only declared commutative, as
+     *                          they are not associative under rounding.
+     */
+    public Arithmetic(boolean declareProperties) {
+        this.declareProperties = declareProperties;
+    }
+
     @Override
     public void register(Environment env) {
 
@@ -18,84 +47,190 @@ public class Arithmetic extends Library {
 
         // ===== FLOAT OPERATIONS =====
 
-        env.addNodeType(n("Add", (inputs, outputs) -> {
-            var a = inputs[0] instanceof Float ? (float) inputs[0] : (int) inputs[0];
-            var b = inputs[1] instanceof Float ? (float) inputs[1] : (int) inputs[1];
-            outputs[0] = a + b;
-        }, d(floatType, floatType), d(floatType)));
-
-        env.addNodeType(n("Subtract", (inputs, outputs) -> {
-            var a = inputs[0] instanceof Float ? (float) inputs[0] : (int) inputs[0];
-            var b = inputs[1] instanceof Float ? (float) inputs[1] : (int) inputs[1];
-            outputs[0] = a - b;
-        }, d(floatType, floatType), d(floatType)));
-
-        env.addNodeType(n("Multiply", (inputs, outputs) -> {
-            var a = inputs[0] instanceof Float ? (float) inputs[0] : (int) inputs[0];
-            var b = inputs[1] instanceof Float ? (float) inputs[1] : (int) inputs[1];
-            outputs[0] = a * b;
-        }, d(floatType, floatType), d(floatType)));
-
-        env.addNodeType(n("Divide", (inputs, outputs) -> {
-            var a = inputs[0] instanceof Float ? (float) inputs[0] : (int) inputs[0];
-            var b = inputs[1] instanceof Float ? (float) inputs[1] : (int) inputs[1];
-            outputs[0] = a / b;
-        }, d(floatType, floatType), d(floatType)));
-
-        env.addNodeType(n("Power", (inputs, outputs) -> {
-            var a = inputs[0] instanceof Float ? (float) inputs[0] : (int) inputs[0];
-            var b = inputs[1] instanceof Float ? (float) inputs[1] : (int) inputs[1];
-            outputs[0] = (float) Math.pow(a, b);
-        }, d(floatType, floatType), d(floatType)));
-
-        env.addNodeType(n("Floor", (inputs, outputs) -> {
-            var a = inputs[0] instanceof Float ? (float) inputs[0] : (int) inputs[0];
-            outputs[0] = (int) Math.floor(a);
-        }, d(floatType), d(integerType)));
-
-        env.addNodeType(n("Ceiling", (inputs, outputs) -> {
-            var a = inputs[0] instanceof Float ? (float) inputs[0] : (int) inputs[0];
-            outputs[0] = (int) Math.ceil(a);
-        }, d(floatType), d(integerType)));
-
-        env.addNodeType(n("Round", (inputs, outputs) -> {
-            var a = inputs[0] instanceof Float ? (float) inputs[0] : (int) inputs[0];
-            outputs[0] = (int) Math.round(a);
-        }, d(floatType), d(integerType)));
-
-        env.addNodeType(n("SquareRoot", (inputs, outputs) -> {
-            var a = inputs[0] instanceof Float ? (float) inputs[0] : (int) inputs[0];
-            outputs[0] = (float) Math.sqrt(a);
-        }, d(floatType), d(floatType)));
+        env.addNodeType(p(n("Add", (FloatBinaryExecutor) (a, b) -> a + b, Arithmetic::addFloats,
+                d(floatType, floatType), d(floatType)), NodeProperty.COMMUTATIVE));
+
+        env.addNodeType(n("Subtract", (FloatBinaryExecutor) (a, b) -> a - b, Arithmetic::subtractFloats,
+                d(floatType, floatType), d(floatType)));
+
+        env.addNodeType(p(n("Multiply", (FloatBinaryExecutor) (a, b) -> a * b, Arithmetic::multiplyFloats,
+                d(floatType, floatType), d(floatType)), NodeProperty.COMMUTATIVE));
+
+        env.addNodeType(n("Divide", (FloatBinaryExecutor) (a, b) -> a / b, Arithmetic::divideFloats,
+                d(floatType, floatType), d(floatType)));
+
+        env.addNodeType(n("Power", (FloatBinaryExecutor) (a, b) -> (float) Math.pow(a, b), Arithmetic::powerFloats,
+                d(floatType, floatType), d(floatType)));
+
+        env.addNodeType(p(n("Floor", (FloatToIntExecutor) a -> (int) Math.floor(a), Arithmetic::floorFloats,
+                d(floatType), d(integerType)), NodeProperty.IDEMPOTENT));
+
+        env.addNodeType(p(n("Ceiling", (FloatToIntExecutor) a -> (int) Math.ceil(a), Arithmetic::ceilingFloats,
+                d(floatType), d(integerType)), NodeProperty.IDEMPOTENT));
+
+        env.addNodeType(p(n("Round", (FloatToIntExecutor) a -> Math.round(a), Arithmetic::roundFloats,
+                d(floatType), d(integerType)), NodeProperty.IDEMPOTENT));
+
+        env.addNodeType(n("SquareRoot", (FloatUnaryExecutor) a -> (float) Math.sqrt(a), Arithmetic::squareRootFloats,
+                d(floatType), d(floatType)));
 
         // ==============================
 
         // ===== INTEGER OPERATIONS =====
 
-        env.addNodeType(n("Add", (inputs, outputs) -> {
-            outputs[0] = (int) inputs[0] + (int) inputs[1];
-        }, d(integerType, integerType), d(integerType)));
+        env.addNodeType(p(n("Add", (IntBinaryExecutor) (a, b) -> a + b, Arithmetic::addInts,
+                d(integerType, integerType), d(integerType)), NodeProperty.COMMUTATIVE, NodeProperty.ASSOCIATIVE));
 
-        env.addNodeType(n("Subtract", (inputs, outputs) -> {
-            outputs[0] = (int) inputs[0] - (int) inputs[1];
-        }, d(integerType, integerType), d(integerType)));
+        env.addNodeType(n("Subtract", (IntBinaryExecutor) (a, b) -> a - b, Arithmetic::subtractInts,
+                d(integerType, integerType), d(integerType)));
 
-        env.addNodeType(n("Multiply", (inputs, outputs) -> {
-            outputs[0] = (int) inputs[0] * (int) inputs[1];
-        }, d(integerType, integerType), d(integerType)));
+        env.addNodeType(p(n("Multiply", (IntBinaryExecutor) (a, b) -> a * b, Arithmetic::multiplyInts,
+                d(integerType, integerType), d(integerType)), NodeProperty.COMMUTATIVE, NodeProperty.ASSOCIATIVE));
 
-        env.addNodeType(n("Divide", (inputs, outputs) -> {
-            outputs[0] = (int) inputs[0] / (int) inputs[1];
-        }, d(integerType, integerType), d(integerType)));
+        env.addNodeType(n("Divide", (IntBinaryExecutor) (a, b) -> a / b, Arithmetic::divideInts,
+                d(integerType, integerType), d(integerType)));
 
-        env.addNodeType(n("Power", (inputs, outputs) -> {
-            outputs[0] = (int) Math.pow((int) inputs[0], (int) inputs[1]);
-        }, d(integerType, integerType), d(integerType)));
+        env.addNodeType(n("Power", (IntBinaryExecutor) (a, b) -> (int) Math.pow(a, b), Arithmetic::powerInts,
+                d(integerType, integerType), d(integerType)));
 
-        env.addNodeType(n("Modulus", (inputs, outputs) -> {
-            outputs[0] = (int) inputs[0] % (int) inputs[1];
-        }, d(integerType, integerType), d(integerType)));
+        env.addNodeType(n("Modulus", (IntBinaryExecutor) (a, b) -> a % b, Arithmetic::modulusInts,
+                d(integerType, integerType), d(integerType)));
 
         // ==============================
     }
+
+    private NodeType p(NodeType type, NodeProperty... properties) {
+        return declareProperties ? type.withProperties(properties) : type;
+    }
+
+    private static void addFloats(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.floats(inputs[0], rows);
+        var b = Columns.floats(inputs[1], rows);
+        var c = new float[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = a[i] + b[i];
+        outputs[0] = c;
+    }
+
+    private static void subtractFloats(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.floats(inputs[0], rows);
+        var b = Columns.floats(inputs[1], rows);
+        var c = new float[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = a[i] - b[i];
+        outputs[0] = c;
+    }
+
+    private static void multiplyFloats(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.floats(inputs[0], rows);
+        var b = Columns.floats(inputs[1], rows);
+        var c = new float[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = a[i] * b[i];
+        outputs[0] = c;
+    }
+
+    private static void divideFloats(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.floats(inputs[0], rows);
+        var b = Columns.floats(inputs[1], rows);
+        var c = new float[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = a[i] / b[i];
+        outputs[0] = c;
+    }
+
+    private static void powerFloats(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.floats(inputs[0], rows);
+        var b = Columns.floats(inputs[1], rows);
+        var c = new float[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = (float) Math.pow(a[i], b[i]);
+        outputs[0] = c;
+    }
+
+    private static void floorFloats(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.floats(inputs[0], rows);
+        var c = new int[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = (int) Math.floor(a[i]);
+        outputs[0] = c;
+    }
+
+    private static void ceilingFloats(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.floats(inputs[0], rows);
+        var c = new int[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = (int) Math.ceil(a[i]);
+        outputs[0] = c;
+    }
+
+    private static void roundFloats(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.floats(inputs[0], rows);
+        var c = new int[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = Math.round(a[i]);
+        outputs[0] = c;
+    }
+
+    private static void squareRootFloats(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.floats(inputs[0], rows);
+        var c = new float[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = (float) Math.sqrt(a[i]);
+        outputs[0] = c;
+    }
+
+    private static void addInts(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.ints(inputs[0], rows);
+        var b = Columns.ints(inputs[1], rows);
+        var c = new int[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = a[i] + b[i];
+        outputs[0] = c;
+    }
+
+    private static void subtractInts(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.ints(inputs[0], rows);
+        var b = Columns.ints(inputs[1], rows);
+        var c = new int[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = a[i] - b[i];
+        outputs[0] = c;
+    }
+
+    private static void multiplyInts(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.ints(inputs[0], rows);
+        var b = Columns.ints(inputs[1], rows);
+        var c = new int[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = a[i] * b[i];
+        outputs[0] = c;
+    }
+
+    private static void divideInts(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.ints(inputs[0], rows);
+        var b = Columns.ints(inputs[1], rows);
+        var c = new int[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = a[i] / b[i];
+        outputs[0] = c;
+    }
+
+    private static void powerInts(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.ints(inputs[0], rows);
+        var b = Columns.ints(inputs[1], rows);
+        var c = new int[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = (int) Math.pow(a[i], b[i]);
+        outputs[0] = c;
+    }
+
+    private static void modulusInts(Object[] inputs, Object[] outputs, int rows) {
+        var a = Columns.ints(inputs[0], rows);
+        var b = Columns.ints(inputs[1], rows);
+        var c = new int[rows];
+        for (var i = 0; i < rows; i++)
+            c[i] = a[i] % b[i];
+        outputs[0] = c;
+    }
 }
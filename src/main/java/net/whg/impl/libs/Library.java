@@ -1,8 +1,10 @@
 package net.whg.impl.libs;
 
+import net.whg.graph.BatchExecutor;
 import net.whg.graph.DataType;
 import net.whg.graph.Executor;
 import net.whg.graph.NodeType;
+import net.whg.graph.PrimitiveExecutor;
 import net.whg.solver.Environment;
 
 /**
@@ -35,6 +37,37 @@ public abstract class Library {
         return new NodeType(name, exec, inputs, outputs);
     }
 
+    /**
+     * A utility function for quickly creating a new node type with a batch
+     * executor. This function is purely for syntax sugar.
+     * 
+     * @param name    - The name of the node type.
+     * @param exec    - The executor function.
+     * @param batch   - The batch executor function.
+     * @param inputs  - The input argument types.
+     * @param outputs - The output argument types.
+     * @return The new node type.
+     */
+    protected NodeType n(String name, Executor exec, BatchExecutor batch, DataType[] inputs, DataType[] outputs) {
+        return new NodeType(name, exec, batch, inputs, outputs);
+    }
+
+    /**
+     * A utility function for quickly creating a new node type with a primitive
+     * executor and a batch executor. This function is purely for syntax sugar.
+     * 
+     * @param name    - The name of the node type.
+     * @param exec    - The primitive executor function.
+     * @param batch   - The batch executor function.
+     * @param inputs  - The input argument types.
+     * @param outputs - The output argument types.
+     * @return The new node type.
+     */
+    protected NodeType n(String name, PrimitiveExecutor exec, BatchExecutor batch, DataType[] inputs,
+            DataType[] outputs) {
+        return new NodeType(name, exec, batch, inputs, outputs);
+    }
+
     /**
      * Loads all contents of this library into the provided environment.
      * 
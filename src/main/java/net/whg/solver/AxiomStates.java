@@ -0,0 +1,36 @@
+package net.whg.solver;
+
+import net.whg.graph.Graph;
+
+/**
+ * The states of the {@link IncrementalAxiom}s of a search space for a single
+ * graph, as cached on the graph by {@link Graph#setAxiomStates(AxiomStates)}.
+ * The states remember the search space that computed them, so a graph that is
+ * expanded within another search space has its states computed again instead
+ * of reusing states that belong to other axioms. Axiom states can only be
+ * created and read by the search space.
+ */
+public final class AxiomStates {
+    private final SearchSpace owner;
+    private final Object[] states;
+
+    /**
+     * Creates a new AxiomStates instance.
+     * 
+     * @param owner  - The search space that computed the states.
+     * @param states - The state of each incremental axiom of the search space, in
+     *               order.
+     */
+    AxiomStates(SearchSpace owner, Object[] states) {
+        this.owner = owner;
+        this.states = states;
+    }
+
+    SearchSpace owner() {
+        return owner;
+    }
+
+    Object[] states() {
+        return states;
+    }
+}
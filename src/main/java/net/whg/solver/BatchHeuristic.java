@@ -0,0 +1,26 @@
+package net.whg.solver;
+
+import java.util.List;
+
+import net.whg.graph.Graph;
+
+/**
+ * A heuristic calculation factor that scores many graphs at once. This allows
+ * heuristics with a high fixed cost per call, such as neural networks, to score
+ * all children of an expansion in a single call. Heuristics that score one graph
+ * at a time should implement {@link Heuristic} instead, which adapts itself to
+ * this interface.
+ */
+public interface BatchHeuristic {
+    /**
+     * Calculates a heuristic estimate for each of the provided graphs. The
+     * provided graphs may not be completed. This function is may be called from
+     * any thread.
+     * 
+     * @param graphs - The graphs to handle.
+     * @param values - The array to store the heuristic estimate of each graph in,
+     *               at the same index as the graph. This array may be longer than
+     *               the list of graphs.
+     */
+    void getHeuristics(List<Graph> graphs, float[] values);
+}
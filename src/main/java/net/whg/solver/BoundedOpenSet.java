@@ -0,0 +1,199 @@
+package net.whg.solver;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * An open set with a fixed budget of graphs and estimated bytes. Graphs are
+ * returned in order of their heuristic value, like a {@link PriorityOpenSet}.
+ * Whenever adding a graph goes over budget, the graphs with the lowest
+ * heuristic values are evicted until the open set fits again. This may be the
+ * graph that was just added.
+ * <p>
+ * Evicted graphs are never expanded, so a search using this open set is no
+ * longer exhaustive. In exchange, memory usage stays predictable over long runs
+ * and the search slows down gracefully instead of running out of memory. The
+ * byte budget is based on {@link net.whg.graph.Graph#estimateByteSize()} plus a
+ * fixed overhead per entry, and only covers the open graphs themselves, not
+ * ancestors that are still kept alive by them.
+ */
+public class BoundedOpenSet implements OpenSet {
+    private static final long ENTRY_OVERHEAD = 96;
+
+    private record Entry(GraphResult result, long sequence, long bytes) implements Comparable<Entry> {
+        @Override
+        public int compareTo(Entry o) {
+            var c = result.compareTo(o.result);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final TreeSet<Entry> entries = new TreeSet<>();
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictedBytes = new LongAdder();
+    private long sequence;
+    private long bytes;
+    private volatile int size;
+
+    /**
+     * Creates a new BoundedOpenSet.
+     * 
+     * @param maxEntries - The maximum number of graphs to keep, or 0 for no limit.
+     * @param maxBytes   - The maximum estimated number of bytes to keep, or 0 for
+     *                   no limit.
+     * @throws IllegalArgumentException If either budget is negative.
+     */
+    public BoundedOpenSet(int maxEntries, long maxBytes) {
+        if (maxEntries < 0)
+            throw new IllegalArgumentException("Entry budget cannot be negative!");
+
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("Byte budget cannot be negative!");
+
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void put(GraphResult result) {
+        var entryBytes = result.graph().estimateByteSize() + ENTRY_OVERHEAD;
+
+        lock.lock();
+        try {
+            entries.add(new Entry(result, sequence++, entryBytes));
+            bytes += entryBytes;
+
+            while (isOverBudget()) {
+                var evicted = entries.pollLast();
+                bytes -= evicted.bytes;
+                evictions.increment();
+                evictedBytes.add(evicted.bytes);
+            }
+
+            size = entries.size();
+            if (size > 0)
+                notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isOverBudget() {
+        return (maxEntries > 0 && entries.size() > maxEntries) || (maxBytes > 0 && bytes > maxBytes);
+    }
+
+    @Override
+    public GraphResult take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (entries.isEmpty())
+                notEmpty.await();
+
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public GraphResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        var nanos = unit.toNanos(timeout);
+
+        lock.lockInterruptibly();
+        try {
+            while (entries.isEmpty()) {
+                if (nanos <= 0)
+                    return null;
+
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private GraphResult removeFirst() {
+        var entry = entries.pollFirst();
+        bytes -= entry.bytes;
+        size = entries.size();
+
+        return entry.result;
+    }
+
+    @Override
+    public void forEach(Consumer<? super GraphResult> action) {
+        lock.lock();
+        try {
+            for (var entry : entries)
+                action.accept(entry.result);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the estimated number of bytes of all graphs in this open set.
+     * 
+     * @return The estimated size in bytes.
+     */
+    public long getByteSize() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of graphs that were evicted to stay within budget.
+     * 
+     * @return The number of evicted graphs.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the estimated number of bytes of all graphs that were evicted to stay
+     * within budget.
+     * 
+     * @return The estimated size of all evicted graphs in bytes.
+     */
+    public long getEvictedBytes() {
+        return evictedBytes.sum();
+    }
+
+    /**
+     * Gets the maximum number of graphs this open set keeps.
+     * 
+     * @return The entry budget, or 0 if there is no limit.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Gets the maximum estimated number of bytes this open set keeps.
+     * 
+     * @return The byte budget, or 0 if there is no limit.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -5,20 +5,25 @@ import java.util.List;
 import net.whg.graph.DataType;
 import net.whg.graph.Graph;
 import net.whg.graph.NodeType;
+import net.whg.graph.SubexpressionCache;
 import net.whg.impl.libs.Library;
 import net.whg.util.SafeArrayList;
 
 /**
  * Contains a set of available node types and axioms that can be passed to a
- * graph when looking for child graphs.
+ * graph when looking for child graphs. Once an environment is compiled into a
+ * {@link SearchSpace}, it can no longer be modified.
  */
 public class Environment {
     private final SafeArrayList<NodeType> nodeTypes = new SafeArrayList<>();
     private final SafeArrayList<Axiom> axioms = new SafeArrayList<>();
-    private final SafeArrayList<Heuristic> heuristics = new SafeArrayList<>();
+    private final SafeArrayList<BatchHeuristic> heuristics = new SafeArrayList<>();
     private final SafeArrayList<DataType> dataTypes = new SafeArrayList<>();
     private final SafeArrayList<Library> libraries = new SafeArrayList<>();
     private final SafeArrayList<FitnessEval> fitness = new SafeArrayList<>();
+    private volatile SubexpressionCache subexpressionCache;
+    private boolean dataTypesFrozen;
+    private SearchSpace searchSpace;
 
     /**
      * Gets the node type in this environment that is marked as an input type. If
@@ -52,8 +57,11 @@ public class Environment {
      * Adds a new node type to this environment.
      * 
      * @param nodeType - The node type to add.
+     * @throws IllegalStateException If this environment has been compiled.
      */
     public void addNodeType(NodeType nodeType) {
+        checkNotCompiled();
+
         if (!nodeTypes.contains(nodeType))
             nodeTypes.add(nodeType);
     }
@@ -71,8 +79,11 @@ public class Environment {
      * Adds a new axiom to this environment.
      * 
      * @param axiom - The axiom to add.
+     * @throws IllegalStateException If this environment has been compiled.
      */
     public void addAxiom(Axiom axiom) {
+        checkNotCompiled();
+
         axioms.add(axiom);
     }
 
@@ -86,11 +97,28 @@ public class Environment {
     }
 
     /**
-     * Adds a new heuristic to this environment.
+     * Adds a new heuristic to this environment. Heuristics that score one graph at
+     * a time can be added as well, as every {@link Heuristic} is also a batch
+     * heuristic.
      * 
      * @param heuristic - The heuristic to add.
+     * @throws IllegalStateException If this environment has been compiled.
+     */
+    public void addHeuristic(BatchHeuristic heuristic) {
+        checkNotCompiled();
+
+        heuristics.add(heuristic);
+    }
+
+    /**
+     * Adds a new heuristic to this environment that scores one graph at a time.
+     * 
+     * @param heuristic - The heuristic to add.
+     * @throws IllegalStateException If this environment has been compiled.
      */
     public void addHeuristic(Heuristic heuristic) {
+        checkNotCompiled();
+
         heuristics.add(heuristic);
     }
 
@@ -99,7 +127,7 @@ public class Environment {
      * 
      * @return A list of all heuristics.
      */
-    public List<Heuristic> getHeuristics() {
+    public List<BatchHeuristic> getHeuristics() {
         return heuristics.asReadOnly();
     }
 
@@ -107,8 +135,11 @@ public class Environment {
      * Adds a new fitness evaluation to this environment.
      * 
      * @param fitness - fitness evaluator to add.
+     * @throws IllegalStateException If this environment has been compiled.
      */
     public void addFitnessEvaluator(FitnessEval eval) {
+        checkNotCompiled();
+
         fitness.add(eval);
     }
 
@@ -121,6 +152,29 @@ public class Environment {
         return fitness.asReadOnly();
     }
 
+    /**
+     * Sets the cache that is used to share node outputs between graphs while
+     * their fitness is evaluated. The cache is bound to the evaluating thread for
+     * the duration of {@link #getFitness(Graph)}, so fitness evaluators do not
+     * need to be aware of it. Caching is disabled by default, as it only pays off
+     * for node types with expensive executors.
+     * 
+     * @param cache - The cache to use, or null to disable caching.
+     */
+    public void setSubexpressionCache(SubexpressionCache cache) {
+        subexpressionCache = cache;
+    }
+
+    /**
+     * Gets the cache that is used to share node outputs between graphs while
+     * their fitness is evaluated.
+     * 
+     * @return The cache, or null if caching is disabled.
+     */
+    public SubexpressionCache getSubexpressionCache() {
+        return subexpressionCache;
+    }
+
     /**
      * Checks if the provided graph passes all axioms in this environment.
      * 
@@ -146,7 +200,7 @@ public class Environment {
         float h = 0;
 
         for (var heuristic : heuristics) {
-            h += heuristic.getHeuristic(graph);
+            h += SearchSpace.getHeuristic(heuristic, graph);
         }
 
         return h;
@@ -154,7 +208,9 @@ public class Environment {
 
     /**
      * Gets the sum of all fitness scores calculated for this graph. The graph
-     * should be complete in order to calculate the fitness score.
+     * should be complete in order to calculate the fitness score. If a
+     * subexpression cache is set, it is used by every graph executed by the
+     * fitness evaluators.
      * 
      * @param graph - The graph to get the fitness of.
      * @return The fitness score
@@ -163,13 +219,21 @@ public class Environment {
         if (!graph.isComplete())
             throw new IllegalStateException("Graph must be complete to evaluate fitness!");
 
-        float score = 0;
+        var cache = subexpressionCache;
+        var previous = cache == null ? null : SubexpressionCache.bind(cache);
 
-        for (var fit : fitness) {
-            score += fit.getFitness(graph);
-        }
+        try {
+            float score = 0;
 
-        return score;
+            for (var fit : fitness) {
+                score += fit.getFitness(graph);
+            }
+
+            return score;
+        } finally {
+            if (cache != null)
+                SubexpressionCache.bind(previous);
+        }
     }
 
     /**
@@ -177,25 +241,93 @@ public class Environment {
      * 
      * @param name - The name of the data type.
      * @return The corresponding data type.
+     * @throws IllegalStateException If the data type does not exist and the data
+     *                               types of this environment have been frozen.
      */
     public DataType getDataType(String name) {
         for (var dataType : dataTypes)
             if (dataType.getName().equals(name))
                 return dataType;
 
+        if (dataTypesFrozen)
+            throw new IllegalStateException("Cannot create data type " + name + " after data types are frozen!");
+
         var dataType = new DataType(name);
         dataTypes.add(dataType);
 
         return dataType;
     }
 
+    /**
+     * Freezes all data types in this environment into a precomputed subtype
+     * matrix, making subtype checks between them constant time. This is called
+     * automatically when a search tree is created from this environment. After
+     * freezing, no new data types can be created and no parent types can be
+     * added. Calling this function again has no effect.
+     * 
+     * @see DataType#freeze(List)
+     */
+    public void freezeDataTypes() {
+        if (dataTypesFrozen)
+            return;
+
+        DataType.freeze(dataTypes.asReadOnly());
+        dataTypesFrozen = true;
+    }
+
+    /**
+     * Checks whether or not the data types of this environment have been frozen.
+     * 
+     * @return True if the data types are frozen.
+     */
+    public boolean isDataTypesFrozen() {
+        return dataTypesFrozen;
+    }
+
+    /**
+     * Compiles this environment into an immutable search space. This freezes the
+     * data types of this environment and seals it, so no node types, axioms,
+     * heuristics, fitness evaluators, libraries, or data types can be added
+     * afterwards. This is called automatically when a search tree is created from
+     * this environment. Calling this function again returns the same search
+     * space.
+     * 
+     * @return The compiled search space.
+     */
+    public SearchSpace compile() {
+        if (searchSpace == null) {
+            freezeDataTypes();
+            searchSpace = new SearchSpace(this);
+        }
+
+        return searchSpace;
+    }
+
+    /**
+     * Checks whether or not this environment has been compiled.
+     * 
+     * @return True if this environment has been compiled and can no longer be
+     *         modified.
+     */
+    public boolean isCompiled() {
+        return searchSpace != null;
+    }
+
+    private void checkNotCompiled() {
+        if (searchSpace != null)
+            throw new IllegalStateException("Cannot modify an environment after it has been compiled!");
+    }
+
     /**
      * Loads a library into this environment and all corresponding library
      * dependencies.
      * 
      * @param lib - The library to load.
+     * @throws IllegalStateException If this environment has been compiled.
      */
     public void loadLibrary(Library lib) {
+        checkNotCompiled();
+
         lib.register(this);
         libraries.add(lib);
     }
@@ -0,0 +1,86 @@
+package net.whg.solver;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks the expansions that are in progress within a search tree, so that the
+ * tree can be paused between expansions. Unlike a read-write lock, an
+ * expansion is not owned by the thread that started it and may be finished by
+ * any thread. Once a pause is requested, no new expansions may start until the
+ * pause is over, so a pause cannot be starved by overlapping expansions.
+ */
+class ExpansionGate {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private int active;
+    private boolean paused;
+
+    /**
+     * Starts a new expansion. This method blocks while the gate is paused.
+     * 
+     * @throws InterruptedException If the thread is interrupted while waiting for
+     *                              the pause to end.
+     */
+    void enter() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (paused)
+                changed.await();
+
+            active++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finishes an expansion that was started by {@link #enter()}.
+     * 
+     * @throws IllegalStateException If no expansion is in progress.
+     */
+    void exit() {
+        lock.lock();
+        try {
+            if (active == 0)
+                throw new IllegalStateException("No expansion is in progress!");
+
+            if (--active == 0)
+                changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops new expansions from starting and waits for all expansions that are
+     * in progress to finish. Each call must be followed by a call to
+     * {@link #resume()}.
+     */
+    void pause() {
+        lock.lock();
+        try {
+            while (paused)
+                changed.awaitUninterruptibly();
+
+            paused = true;
+            while (active > 0)
+                changed.awaitUninterruptibly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Allows new expansions to start again after a call to {@link #pause()}.
+     */
+    void resume() {
+        lock.lock();
+        try {
+            paused = false;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package net.whg.solver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import net.whg.graph.Graph;
+
+/**
+ * Encodes graphs and their heuristic values as compact binary records. Each
+ * record stores the heuristic value, the number of moves, and the moves that
+ * lead from the base graph to the graph, as written by
+ * {@link Graph#writeMoves(ByteBuffer, SearchSpace)}.
+ */
+final class GraphRecords {
+    private GraphRecords() {
+    }
+
+    /**
+     * Gets the number of bytes the record of a graph takes up.
+     * 
+     * @param graph - The graph.
+     * @return The record size in bytes.
+     */
+    static int size(Graph graph) {
+        return 6 + graph.getConnectionCount() * Graph.MOVE_BYTES;
+    }
+
+    /**
+     * Writes the record of a graph.
+     * 
+     * @param buffer - The buffer to write to.
+     * @param result - The graph and its heuristic value.
+     * @param space  - The search space that new node types are indexed in.
+     * @throws IllegalArgumentException If the graph is too large to encode.
+     */
+    static void write(ByteBuffer buffer, GraphResult result, SearchSpace space) {
+        var graph = result.graph();
+        if (graph.getConnectionCount() > 0xFFFF)
+            throw new IllegalArgumentException("Graph is too large to encode!");
+
+        buffer.putFloat(result.heuristic());
+        buffer.putShort((short) graph.getConnectionCount());
+        graph.writeMoves(buffer, space);
+    }
+
+    /**
+     * Writes records to a file channel through a buffer, and counts them. Records
+     * that are already encoded, such as the records of a spilled open set, can
+     * be copied as they are without being read first.
+     */
+    static final class Writer {
+        private final FileChannel channel;
+        private final SearchSpace space;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        private int count;
+
+        /**
+         * Creates a new Writer.
+         * 
+         * @param channel - The channel to write to.
+         * @param space   - The search space that new node types are indexed in.
+         */
+        Writer(FileChannel channel, SearchSpace space) {
+            this.channel = channel;
+            this.space = space;
+        }
+
+        /**
+         * Writes the record of a graph.
+         * 
+         * @param result - The graph and its heuristic value.
+         * @throws IOException If the channel could not be written to.
+         */
+        void write(GraphResult result) throws IOException {
+            if (buffer.remaining() < size(result.graph()))
+                flush();
+
+            GraphRecords.write(buffer, result, space);
+            count++;
+        }
+
+        /**
+         * Copies records that are already encoded.
+         * 
+         * @param records - The encoded records, from the position to the limit of
+         *                the buffer.
+         * @param count   - The number of records.
+         * @throws IOException If the channel could not be written to.
+         */
+        void writeEncoded(ByteBuffer records, int count) throws IOException {
+            if (buffer.remaining() < records.remaining()) {
+                flush();
+
+                while (records.hasRemaining())
+                    channel.write(records);
+            } else {
+                buffer.put(records);
+            }
+
+            this.count += count;
+        }
+
+        /**
+         * Writes all buffered records to the channel.
+         * 
+         * @throws IOException If the channel could not be written to.
+         */
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+
+            buffer.clear();
+        }
+
+        /**
+         * Gets the number of records written so far.
+         * 
+         * @return The number of records.
+         */
+        int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Reads records from a single buffer. Consecutive records that start with the
+     * same moves share the graphs created by those moves, so graphs that were
+     * written next to their siblings share their ancestors again once read.
+     */
+    static final class Reader {
+        private final Graph root;
+        private final SearchSpace space;
+        private Graph[] path = new Graph[16];
+        private int previousStart = -1;
+        private int previousCount;
+
+        /**
+         * Creates a new Reader.
+         * 
+         * @param root  - The base graph to apply the moves of each record to.
+         * @param space - The search space that new node types are indexed in.
+         */
+        Reader(Graph root, SearchSpace space) {
+            this.root = root;
+            this.space = space;
+        }
+
+        /**
+         * Reads the next record. All records passed to this reader must come from
+         * the same buffer.
+         * 
+         * @param buffer - The buffer to read from.
+         * @return The graph and its heuristic value.
+         */
+        GraphResult read(ByteBuffer buffer) {
+            var heuristic = buffer.getFloat();
+            var count = buffer.getShort() & 0xFFFF;
+            var start = buffer.position();
+
+            if (path.length < count)
+                path = Arrays.copyOf(path, Math.max(count, path.length * 2));
+
+            var shared = 0;
+            if (previousStart >= 0) {
+                var limit = Math.min(count, previousCount) * Graph.MOVE_BYTES;
+                while (shared < limit && buffer.get(start + shared) == buffer.get(previousStart + shared))
+                    shared++;
+
+                shared /= Graph.MOVE_BYTES;
+            }
+
+            buffer.position(start + shared * Graph.MOVE_BYTES);
+            var graph = shared == 0 ? root : path[shared - 1];
+            for (var i = shared; i < count; i++) {
+                graph = graph.readMove(buffer, space);
+                path[i] = graph;
+            }
+
+            previousStart = start;
+            previousCount = count;
+
+            return new GraphResult(graph, heuristic);
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package net.whg.solver;
 
+import java.util.List;
+
 import net.whg.graph.Graph;
 
 /**
  * A heuristic calculation factor that is taken into consideration when
- * searching for a matching graph solution.
+ * searching for a matching graph solution. This scores one graph at a time, and
+ * is adapted to score batches of graphs by calling it once for each graph.
  */
-public interface Heuristic {
+public interface Heuristic extends BatchHeuristic {
     /**
      * Calculates a heuristic estimate for the provided graph. The provided graph
      * may not be completed. This function is may be called from any thread.
@@ -15,4 +18,15 @@ public interface Heuristic {
      * @return The heuristic estimate.
      */
     float getHeuristic(Graph graph);
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This calls {@link #getHeuristic(Graph)} once for each graph.
+     */
+    @Override
+    default void getHeuristics(List<Graph> graphs, float[] values) {
+        for (var i = 0; i < graphs.size(); i++)
+            values[i] = getHeuristic(graphs.get(i));
+    }
 }
@@ -0,0 +1,55 @@
+package net.whg.solver;
+
+import net.whg.graph.Graph;
+import net.whg.graph.Move;
+
+/**
+ * An axiom that can verify a move from the state it computed for the parent
+ * graph, instead of looking at the whole child graph. A child graph only differs
+ * from its parent by a single connection, so most axioms only need to look at
+ * that connection and a small summary of the parent. Moves that fail an
+ * incremental axiom are never turned into child graphs.
+ * <p>
+ * States are cached on each valid graph by the search space and must not be
+ * modified once returned. Axioms that do not need a summary of the parent may
+ * return the same state object for every graph, which lets every graph share
+ * the state array of its parent.
+ * 
+ * @param <S> - The type of state this axiom keeps for each graph.
+ */
+public interface IncrementalAxiom<S> extends Axiom {
+    /**
+     * Computes the state of a graph from scratch. This is used for base graphs,
+     * and for graphs that were created without going through the search space,
+     * such as graphs restored from a checkpoint. This function may be called
+     * from any thread.
+     * 
+     * @param graph - The graph to compute the state of.
+     * @return The state of the graph, or null if the graph does not follow this
+     *         axiom.
+     */
+    S getState(Graph graph);
+
+    /**
+     * Verifies the child graph a move would create, given the state of its
+     * parent. The parent graph is known to follow this axiom. This function may
+     * be called from any thread.
+     * 
+     * @param parentState - The state of the parent graph.
+     * @param parent      - The parent graph.
+     * @param move        - The move that creates the child graph.
+     * @return The state of the child graph, or null if the child graph does not
+     *         follow this axiom.
+     */
+    S verifyMove(S parentState, Graph parent, Move move);
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * By default, this computes the state of the graph from scratch.
+     */
+    @Override
+    default boolean verifyGraph(Graph graph) {
+        return getState(graph) != null;
+    }
+}
@@ -0,0 +1,216 @@
+package net.whg.solver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import net.whg.graph.Graph;
+
+/**
+ * An iterative deepening depth-first search over the connection count of
+ * graphs. Each iteration searches every graph with up to a limited number of
+ * connections, and the limit is raised by one for the next iteration, until an
+ * iteration no longer reaches any incomplete graph at its limit.
+ * <p>
+ * Each iteration starts by expanding the starting graphs breadth first until
+ * there are enough subtrees to keep every thread busy. The threads then take
+ * subtrees from a shared queue and search them depth first, visiting children
+ * in order of their heuristic value, and wait for each other before starting
+ * the next iteration. Only the children of the graphs on the current search
+ * path are kept in memory.
+ * <p>
+ * Complete graphs are only reported in the iteration whose limit matches their
+ * connection count, so each solution is reported once. The transposition table
+ * of the tree is not used, as every iteration visits the same graphs again.
+ */
+class IterativeDeepeningSearch implements Runnable {
+    private final Tree tree;
+    private final SearchSpace space;
+    private final int threadCount;
+    private final List<Graph> roots = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Graph> work = new ConcurrentLinkedQueue<>();
+    private final CyclicBarrier barrier;
+    private final SearchFailure failure = new SearchFailure();
+    private volatile int depthLimit;
+    private volatile boolean cutoff;
+    private volatile boolean finished;
+
+    /**
+     * Creates a new IterativeDeepeningSearch. All graphs that are currently in
+     * the open set of the tree are removed and used as starting graphs.
+     * 
+     * @param tree        - The search tree to report solutions to.
+     * @param threadCount - The number of threads that will run this search.
+     */
+    IterativeDeepeningSearch(Tree tree, int threadCount) {
+        this.tree = tree;
+        this.space = tree.getSearchSpace();
+        this.threadCount = threadCount;
+
+        var open = tree.getOpenSet();
+        while (open.size() > 0) {
+            try {
+                var result = open.poll(0, TimeUnit.MILLISECONDS);
+                if (result == null)
+                    break;
+
+                roots.add(result.graph());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        barrier = new CyclicBarrier(threadCount, this::nextIteration);
+
+        depthLimit = roots.stream().mapToInt(Graph::getConnectionCount).min().orElse(0) + 1;
+        split();
+    }
+
+    private void nextIteration() {
+        if (finished)
+            return;
+
+        if (!cutoff) {
+            finished = true;
+            return;
+        }
+
+        depthLimit++;
+        split();
+    }
+
+    private void split() {
+        cutoff = false;
+
+        var level = new ArrayList<Graph>(roots);
+        var target = threadCount * 8;
+        var expanded = true;
+
+        while (level.size() < target && expanded) {
+            var next = new ArrayList<Graph>();
+            expanded = false;
+
+            for (var graph : level) {
+                if (graph.isComplete() || graph.getConnectionCount() >= depthLimit) {
+                    next.add(graph);
+                    continue;
+                }
+
+                tree.countProcessed();
+                expanded = true;
+
+                space.getValidChildGraphs(graph, next);
+            }
+
+            level = next;
+        }
+
+        work.addAll(level);
+    }
+
+    /**
+     * Searches subtrees until the search is finished or stopped. If searching a
+     * subtree or starting the next iteration throws an exception, the exception
+     * is recorded and the whole search is stopped, as the iterations can no
+     * longer be completed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (!finished) {
+                var limit = depthLimit;
+
+                Graph graph;
+                while (!finished && (graph = work.poll()) != null)
+                    search(graph, limit);
+
+                try {
+                    barrier.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (BrokenBarrierException e) {
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            failure.record(e);
+            stop();
+        }
+    }
+
+    private void search(Graph graph, int limit) {
+        if (graph.isComplete()) {
+            if (graph.getConnectionCount() == limit)
+                tree.putSolution(graph, space.getFitness(graph));
+
+            return;
+        }
+
+        if (graph.getConnectionCount() >= limit) {
+            cutoff = true;
+            return;
+        }
+
+        var children = expand(graph);
+        for (var i = 0; i < children.size() && !finished; i++) {
+            var child = children.get(i).graph();
+            children.set(i, null);
+            search(child, limit);
+        }
+    }
+
+    /**
+     * Expands a graph and sorts its valid children by heuristic value, best
+     * first.
+     */
+    private List<GraphResult> expand(Graph graph) {
+        tree.countProcessed();
+
+        var buffer = new ArrayList<Graph>();
+        space.getValidChildGraphs(graph, buffer);
+
+        var heuristics = new float[buffer.size()];
+        space.getHeuristics(buffer, heuristics);
+
+        var children = new ArrayList<GraphResult>(buffer.size());
+        for (var i = 0; i < buffer.size(); i++)
+            children.add(new GraphResult(buffer.get(i), heuristics[i]));
+
+        Collections.sort(children);
+        return children;
+    }
+
+    /**
+     * Stops this search. Threads finish the graph they are currently searching
+     * and then exit.
+     */
+    void stop() {
+        finished = true;
+        barrier.reset();
+    }
+
+    /**
+     * Gets the first exception that was thrown while searching.
+     * 
+     * @return The first failure, or null if nothing has failed.
+     */
+    RuntimeException getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * Checks whether or not this search has finished, either because it was
+     * stopped or because no graph is left to explore.
+     * 
+     * @return True if this search has finished.
+     */
+    boolean isFinished() {
+        return finished;
+    }
+}
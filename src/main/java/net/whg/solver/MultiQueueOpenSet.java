@@ -0,0 +1,213 @@
+package net.whg.solver;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * An open set with relaxed ordering that scales with the number of worker
+ * threads. Graphs are spread over several priority queues, each behind its own
+ * lock. A graph is added to a random queue, and the next graph is taken from
+ * whichever of a few randomly sampled queues has the best head. Worker threads
+ * therefore rarely wait on each other, as they almost never touch the same
+ * queue at the same time.
+ * <p>
+ * The cost is that the returned graph is not always the best open graph. On
+ * average, it is ranked within about the number of queues of the best one, so
+ * more queues give less contention but a less greedy search. Sampling more
+ * queues per take moves it back towards exact ordering, at the cost of reading
+ * more queue heads. Using two to four queues per worker thread and sampling two
+ * queues is a good starting point. For exact ordering, use a
+ * {@link PriorityOpenSet} instead.
+ */
+public class MultiQueueOpenSet implements OpenSet {
+    private static class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final PriorityQueue<GraphResult> queue = new PriorityQueue<>();
+        private volatile GraphResult head;
+    }
+
+    private static final int SAMPLE_ATTEMPTS = 4;
+
+    private final Shard[] shards;
+    private final int choices;
+    private final Semaphore available = new Semaphore(0);
+
+    /**
+     * Creates a new MultiQueueOpenSet that samples two queues for each take.
+     * 
+     * @param queueCount - The number of queues to spread graphs over.
+     * @throws IllegalArgumentException If the queue count is less than 1.
+     */
+    public MultiQueueOpenSet(int queueCount) {
+        this(queueCount, 2);
+    }
+
+    /**
+     * Creates a new MultiQueueOpenSet.
+     * 
+     * @param queueCount - The number of queues to spread graphs over.
+     * @param choices    - The number of random queues to compare when taking the
+     *                   next graph.
+     * @throws IllegalArgumentException If the queue count or the number of
+     *                                  choices is less than 1.
+     */
+    public MultiQueueOpenSet(int queueCount, int choices) {
+        if (queueCount < 1)
+            throw new IllegalArgumentException("Must have at least 1 queue!");
+
+        if (choices < 1)
+            throw new IllegalArgumentException("Must sample at least 1 queue!");
+
+        shards = new Shard[queueCount];
+        for (var i = 0; i < queueCount; i++)
+            shards[i] = new Shard();
+
+        this.choices = choices;
+    }
+
+    @Override
+    public void put(GraphResult result) {
+        var random = ThreadLocalRandom.current();
+
+        var shard = shards[random.nextInt(shards.length)];
+        if (!shard.lock.tryLock()) {
+            shard = shards[random.nextInt(shards.length)];
+            shard.lock.lock();
+        }
+
+        try {
+            shard.queue.add(result);
+            shard.head = shard.queue.peek();
+        } finally {
+            shard.lock.unlock();
+        }
+
+        available.release();
+    }
+
+    @Override
+    public GraphResult take() throws InterruptedException {
+        available.acquire();
+        return remove();
+    }
+
+    @Override
+    public GraphResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!available.tryAcquire(timeout, unit))
+            return null;
+
+        return remove();
+    }
+
+    /**
+     * Removes a graph from one of the queues. The caller must have acquired a
+     * permit first, which guarantees that there is a graph to remove. The first
+     * few attempts only sample queues and skip any queue that is locked. After
+     * that, the first queue that has a graph is locked and waited on, so a
+     * contended set does not keep threads spinning.
+     */
+    private GraphResult remove() {
+        for (var attempt = 0;; attempt++) {
+            var blocking = attempt >= SAMPLE_ATTEMPTS;
+            var shard = blocking ? scan() : sample();
+            if (shard == null)
+                shard = scan();
+
+            if (shard != null) {
+                var result = blocking ? pollLocked(shard) : tryPoll(shard);
+                if (result != null)
+                    return result;
+            }
+
+            Thread.onSpinWait();
+        }
+    }
+
+    private GraphResult tryPoll(Shard shard) {
+        if (!shard.lock.tryLock())
+            return null;
+
+        try {
+            return pollHead(shard);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private GraphResult pollLocked(Shard shard) {
+        shard.lock.lock();
+        try {
+            return pollHead(shard);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private GraphResult pollHead(Shard shard) {
+        var result = shard.queue.poll();
+        if (result != null)
+            shard.head = shard.queue.peek();
+
+        return result;
+    }
+
+    private Shard sample() {
+        var random = ThreadLocalRandom.current();
+        Shard best = null;
+        GraphResult bestHead = null;
+
+        for (var i = 0; i < choices; i++) {
+            var shard = shards[random.nextInt(shards.length)];
+            var head = shard.head;
+
+            if (head != null && (bestHead == null || head.compareTo(bestHead) < 0)) {
+                best = shard;
+                bestHead = head;
+            }
+        }
+
+        return best;
+    }
+
+    private Shard scan() {
+        var start = ThreadLocalRandom.current().nextInt(shards.length);
+
+        for (var i = 0; i < shards.length; i++) {
+            var shard = shards[(start + i) % shards.length];
+            if (shard.head != null)
+                return shard;
+        }
+
+        return null;
+    }
+
+    @Override
+    public void forEach(Consumer<? super GraphResult> action) {
+        for (var shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.queue.forEach(action);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return available.availablePermits();
+    }
+
+    /**
+     * Gets the number of queues graphs are spread over.
+     * 
+     * @return The number of queues.
+     */
+    public int getQueueCount() {
+        return shards.length;
+    }
+}
@@ -0,0 +1,59 @@
+package net.whg.solver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The set of open graphs within a search tree that are waiting to be expanded.
+ * Graphs with a higher heuristic value should be returned first, but
+ * implementations may relax this ordering in exchange for less contention
+ * between worker threads. All functions may be called from any thread.
+ */
+public interface OpenSet {
+    /**
+     * Adds a graph to this open set.
+     * 
+     * @param result - The graph and its heuristic value.
+     */
+    void put(GraphResult result);
+
+    /**
+     * Removes the next graph from this open set. This method blocks until a graph
+     * becomes available.
+     * 
+     * @return The next graph to expand.
+     * @throws InterruptedException If the thread is interrupted while waiting for a
+     *                              graph to become available.
+     */
+    GraphResult take() throws InterruptedException;
+
+    /**
+     * Removes the next graph from this open set, waiting up to the given time for
+     * a graph to become available.
+     * 
+     * @param timeout - How long to wait before giving up.
+     * @param unit    - The unit of the timeout.
+     * @return The next graph to expand, or null if no graph became available in
+     *         time.
+     * @throws InterruptedException If the thread is interrupted while waiting for a
+     *                              graph to become available.
+     */
+    GraphResult poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Passes every graph in this open set to the given action, in no particular
+     * order, without removing them. If other threads add or remove graphs at the
+     * same time, they may or may not be included.
+     * 
+     * @param action - The action to preform for each graph.
+     */
+    void forEach(Consumer<? super GraphResult> action);
+
+    /**
+     * Gets the number of graphs in this open set. While other threads are adding
+     * or removing graphs, this value may be slightly out of date.
+     * 
+     * @return The number of open graphs.
+     */
+    int size();
+}
@@ -0,0 +1,40 @@
+package net.whg.solver;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * An open set that always returns the graph with the highest heuristic value.
+ * All graphs are kept in a single priority queue behind a single lock, so the
+ * ordering is exact but every worker thread contends for the same lock. This is
+ * the default open set of a search tree.
+ */
+public class PriorityOpenSet implements OpenSet {
+    private final PriorityBlockingQueue<GraphResult> queue = new PriorityBlockingQueue<>();
+
+    @Override
+    public void put(GraphResult result) {
+        queue.put(result);
+    }
+
+    @Override
+    public GraphResult take() throws InterruptedException {
+        return queue.take();
+    }
+
+    @Override
+    public GraphResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    @Override
+    public void forEach(Consumer<? super GraphResult> action) {
+        queue.forEach(action);
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,32 @@
+package net.whg.solver;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Records the exceptions thrown while expanding graphs, so that a failing
+ * heuristic, fitness evaluator or axiom ends the search instead of silently
+ * killing the thread that ran it. Only the first failure is kept, later ones
+ * are added to it as suppressed exceptions.
+ */
+final class SearchFailure {
+    private final AtomicReference<RuntimeException> first = new AtomicReference<>();
+
+    /**
+     * Records a failure.
+     * 
+     * @param e - The exception that was thrown.
+     */
+    void record(RuntimeException e) {
+        if (!first.compareAndSet(null, e))
+            first.get().addSuppressed(e);
+    }
+
+    /**
+     * Gets the first recorded failure.
+     * 
+     * @return The first failure, or null if nothing has failed.
+     */
+    RuntimeException get() {
+        return first.get();
+    }
+}
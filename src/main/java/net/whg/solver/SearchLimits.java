@@ -0,0 +1,70 @@
+package net.whg.solver;
+
+import java.time.Duration;
+
+/**
+ * The conditions under which a {@link Solver} ends its search early. A search
+ * always ends once it runs out of graphs to explore, regardless of its limits.
+ * 
+ * @param maxExpansions - The number of expanded graphs after which the search
+ *                      ends, or 0 for no limit. Limits are checked every few
+ *                      milliseconds, so the search may expand some more
+ *                      graphs before its workers stop.
+ * @param maxTime       - The duration after which the search ends, or null for
+ *                      no limit.
+ * @param targetFitness - The fitness score that ends the search once a
+ *                      solution reaches it, or NaN for no target.
+ */
+public record SearchLimits(long maxExpansions, Duration maxTime, float targetFitness) {
+    /**
+     * Limits that never end a search early.
+     */
+    public static final SearchLimits NONE = new SearchLimits(0, null, Float.NaN);
+
+    /**
+     * Creates a new SearchLimits.
+     * 
+     * @throws IllegalArgumentException If the expansion limit or the duration is
+     *                                  negative.
+     */
+    public SearchLimits {
+        if (maxExpansions < 0)
+            throw new IllegalArgumentException("Expansion limit cannot be negative!");
+
+        if (maxTime != null && maxTime.isNegative())
+            throw new IllegalArgumentException("Time limit cannot be negative!");
+    }
+
+    /**
+     * Creates a copy of these limits with a different expansion limit.
+     * 
+     * @param maxExpansions - The number of expanded graphs after which the search
+     *                      ends, or 0 for no limit.
+     * @return The new limits.
+     */
+    public SearchLimits withMaxExpansions(long maxExpansions) {
+        return new SearchLimits(maxExpansions, maxTime, targetFitness);
+    }
+
+    /**
+     * Creates a copy of these limits with a different time limit.
+     * 
+     * @param maxTime - The duration after which the search ends, or null for no
+     *                limit.
+     * @return The new limits.
+     */
+    public SearchLimits withMaxTime(Duration maxTime) {
+        return new SearchLimits(maxExpansions, maxTime, targetFitness);
+    }
+
+    /**
+     * Creates a copy of these limits with a different target fitness.
+     * 
+     * @param targetFitness - The fitness score that ends the search once a
+     *                      solution reaches it, or NaN for no target.
+     * @return The new limits.
+     */
+    public SearchLimits withTargetFitness(float targetFitness) {
+        return new SearchLimits(maxExpansions, maxTime, targetFitness);
+    }
+}
@@ -0,0 +1,28 @@
+package net.whg.solver;
+
+/**
+ * The strategies a {@link Solver} can use to navigate a search tree.
+ */
+public enum SearchMode {
+    /**
+     * Always expands the open graph with the highest heuristic value. Every
+     * generated graph is kept in the open set of the tree until it is expanded,
+     * so memory usage grows with the size of the search frontier.
+     */
+    BEST_FIRST,
+
+    /**
+     * Runs repeated depth-first searches from the open graphs of the tree, each
+     * one allowed to go one connection deeper than the last. Children are visited
+     * in order of their heuristic value. Memory usage only grows with the search
+     * depth, at the cost of expanding shallow graphs again in every iteration.
+     */
+    ITERATIVE_DEEPENING,
+
+    /**
+     * Expands the open graph with the highest heuristic value like
+     * {@link #BEST_FIRST}, but splits each expansion into stages that run on
+     * their own threads. See {@link SearchPipeline}.
+     */
+    PIPELINE
+}
@@ -0,0 +1,341 @@
+package net.whg.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import net.whg.graph.Graph;
+import net.whg.graph.Move;
+
+/**
+ * Navigates the search tree with a pipeline of stages instead of a list of
+ * identical workers. Each expansion passes through four stages, which are
+ * joined by bounded queues:
+ * <ol>
+ * <li>{@link Stage#EXPAND} pulls the next graph out of the tree and lists its
+ * moves.</li>
+ * <li>{@link Stage#VALIDATE} checks the moves against the axioms, creates the
+ * valid child graphs, and checks them against the transposition table.</li>
+ * <li>{@link Stage#SCORE} evaluates the heuristics of the open children in one
+ * batch and the fitness of the complete children.</li>
+ * <li>{@link Stage#ENQUEUE} puts the children back into the tree.</li>
+ * </ol>
+ * Every stage runs on its own threads, so slow stages can be given more
+ * threads than fast ones. A stage that cannot keep up fills the queue in front
+ * of it, which blocks the stages before it, so the queue depths reported by
+ * {@link #getQueueDepth(Stage)} show where the bottleneck sits.
+ * <p>
+ * Expansions stay open in the tree until their children are enqueued, so
+ * checkpoints remain consistent while the pipeline is running.
+ * <p>
+ * If a stage throws an exception for an expansion, such as a heuristic or
+ * fitness evaluator failing on one graph, the children of that expansion are
+ * dropped, the expansion is closed in the tree, and the exception is recorded.
+ * The stage keeps running, so the rest of the pipeline never waits on it. The
+ * first failure is available from {@link #getFailure()} and is thrown again by
+ * {@link #stop()}.
+ */
+public class SearchPipeline {
+    /**
+     * The stages of a search pipeline, in order.
+     */
+    public enum Stage {
+        EXPAND, VALIDATE, SCORE, ENQUEUE
+    }
+
+    private static final long POLL_MILLIS = 10;
+
+    private static class Expansion {
+        private final Graph parent;
+        private final List<Move> moves = new ArrayList<>();
+        private final List<Graph> children = new ArrayList<>();
+        private final List<Graph> open = new ArrayList<>();
+        private final List<Graph> complete = new ArrayList<>();
+        private float[] heuristics;
+        private float[] fitness;
+
+        private Expansion(Graph parent) {
+            this.parent = parent;
+        }
+    }
+
+    private class StageRunner implements Runnable {
+        private final BlockingQueue<Expansion> queue;
+        private final Consumer<Expansion> action;
+        private final Thread[] threads;
+        private volatile boolean upstreamFinished;
+
+        private StageRunner(Stage stage, int threadCount, int queueCapacity, ThreadFactory factory,
+                Consumer<Expansion> action) {
+            if (threadCount < 1)
+                throw new IllegalArgumentException("Each stage needs at least one thread!");
+
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.action = action;
+            this.threads = new Thread[threadCount];
+
+            for (var i = 0; i < threadCount; i++) {
+                threads[i] = factory.newThread(this);
+                threads[i].setName("search-" + stage.name().toLowerCase() + "-" + i);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Expansion expansion;
+                try {
+                    expansion = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                if (expansion == null) {
+                    if (upstreamFinished)
+                        return;
+
+                    continue;
+                }
+
+                try {
+                    action.accept(expansion);
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        private void finish() throws InterruptedException {
+            upstreamFinished = true;
+            for (var thread : threads)
+                thread.join();
+        }
+    }
+
+    private final Tree tree;
+    private final SearchSpace space;
+    private final Thread[] expandThreads;
+    private final StageRunner validate;
+    private final StageRunner score;
+    private final StageRunner enqueue;
+    private final SearchFailure failure = new SearchFailure();
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts a new search pipeline on daemon threads, with a single
+     * thread for the enqueue stage.
+     * 
+     * @param tree            - The search tree to navigate.
+     * @param expandThreads   - The number of threads that expand graphs.
+     * @param validateThreads - The number of threads that validate children.
+     * @param scoreThreads    - The number of threads that score children.
+     * @param queueCapacity   - The number of expansions each queue between two
+     *                        stages can hold.
+     * @throws IllegalArgumentException If a stage has no threads, or the queue
+     *                                  capacity is less than 1.
+     */
+    public SearchPipeline(Tree tree, int expandThreads, int validateThreads, int scoreThreads, int queueCapacity) {
+        this(tree, expandThreads, validateThreads, scoreThreads, 1, queueCapacity, SearchPipeline::newDaemonThread);
+    }
+
+    /**
+     * Creates and starts a new search pipeline. The score stage creates its
+     * threads with the given thread factory, so heuristics that mostly wait on
+     * I/O, such as a remote model, can run on cheap threads in large numbers.
+     * 
+     * @param tree            - The search tree to navigate.
+     * @param expandThreads   - The number of threads that expand graphs.
+     * @param validateThreads - The number of threads that validate children.
+     * @param scoreThreads    - The number of threads that score children.
+     * @param enqueueThreads  - The number of threads that put children back into
+     *                        the tree.
+     * @param queueCapacity   - The number of expansions each queue between two
+     *                        stages can hold.
+     * @param scoreFactory    - The thread factory for the score stage.
+     * @throws IllegalArgumentException If a stage has no threads, or the queue
+     *                                  capacity is less than 1.
+     */
+    public SearchPipeline(Tree tree, int expandThreads, int validateThreads, int scoreThreads, int enqueueThreads,
+            int queueCapacity, ThreadFactory scoreFactory) {
+        if (expandThreads < 1)
+            throw new IllegalArgumentException("Each stage needs at least one thread!");
+
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("Queue capacity must be at least 1!");
+
+        this.tree = tree;
+        this.space = tree.getSearchSpace();
+
+        ThreadFactory factory = SearchPipeline::newDaemonThread;
+        validate = new StageRunner(Stage.VALIDATE, validateThreads, queueCapacity, factory, this::validate);
+        score = new StageRunner(Stage.SCORE, scoreThreads, queueCapacity, scoreFactory, this::score);
+        enqueue = new StageRunner(Stage.ENQUEUE, enqueueThreads, queueCapacity, factory, this::enqueue);
+
+        this.expandThreads = new Thread[expandThreads];
+        for (var i = 0; i < expandThreads; i++) {
+            this.expandThreads[i] = factory.newThread(this::expandLoop);
+            this.expandThreads[i].setName("search-expand-" + i);
+        }
+
+        for (var runner : List.of(enqueue, score, validate)) {
+            for (var thread : runner.threads)
+                thread.start();
+        }
+
+        for (var thread : this.expandThreads)
+            thread.start();
+    }
+
+    private static Thread newDaemonThread(Runnable task) {
+        var thread = new Thread(task);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private void expandLoop() {
+        while (running) {
+            Graph graph;
+            try {
+                graph = tree.beginExpansion();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            var expansion = new Expansion(graph);
+            try {
+                graph.getMoves(expansion.moves, space);
+            } catch (RuntimeException e) {
+                fail(e);
+                continue;
+            }
+
+            handOff(validate, expansion);
+        }
+    }
+
+    /**
+     * Closes an expansion that failed in one of the stages and records the
+     * exception.
+     */
+    private void fail(RuntimeException e) {
+        tree.endExpansion();
+        failure.record(e);
+    }
+
+    private void validate(Expansion expansion) {
+        space.getValidChildGraphs(expansion.parent, expansion.moves, expansion.children);
+
+        for (var graph : expansion.children) {
+            if (!tree.markVisited(graph))
+                continue;
+
+            if (graph.isComplete())
+                expansion.complete.add(graph);
+            else
+                expansion.open.add(graph);
+        }
+
+        expansion.moves.clear();
+        expansion.children.clear();
+        handOff(score, expansion);
+    }
+
+    private void score(Expansion expansion) {
+        expansion.heuristics = new float[expansion.open.size()];
+        space.getHeuristics(expansion.open, expansion.heuristics);
+
+        expansion.fitness = new float[expansion.complete.size()];
+        for (var i = 0; i < expansion.complete.size(); i++)
+            expansion.fitness[i] = space.getFitness(expansion.complete.get(i));
+
+        handOff(enqueue, expansion);
+    }
+
+    private void enqueue(Expansion expansion) {
+        for (var i = 0; i < expansion.complete.size(); i++)
+            tree.putSolution(expansion.complete.get(i), expansion.fitness[i]);
+
+        for (var i = 0; i < expansion.open.size(); i++)
+            tree.putGraph(expansion.open.get(i), expansion.heuristics[i]);
+
+        tree.endExpansion();
+    }
+
+    /**
+     * Passes an expansion on to the next stage. Expansions are never dropped once
+     * they were pulled out of the tree, so an interrupt only takes effect after
+     * the expansion was handed off.
+     */
+    private static void handOff(StageRunner next, Expansion expansion) {
+        var interrupted = false;
+        while (true) {
+            try {
+                next.queue.put(expansion);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Gets the number of items waiting in front of a stage. For the expand stage,
+     * this is the number of open graphs in the tree.
+     * 
+     * @param stage - The stage to check.
+     * @return The number of waiting expansions, or open graphs for the expand
+     *         stage.
+     */
+    public int getQueueDepth(Stage stage) {
+        return switch (stage) {
+            case EXPAND -> tree.getNumOpenGraphs();
+            case VALIDATE -> validate.queue.size();
+            case SCORE -> score.queue.size();
+            case ENQUEUE -> enqueue.queue.size();
+        };
+    }
+
+    /**
+     * Gets the first exception that was thrown by one of the stages.
+     * 
+     * @return The first failure, or null if no stage has failed.
+     */
+    public RuntimeException getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * Stops pulling new graphs out of the tree and waits for all expansions that
+     * are already in the pipeline to be put back into the tree.
+     * 
+     * @throws InterruptedException  If the thread is interrupted while waiting for
+     *                               the stages to finish.
+     * @throws IllegalStateException If one of the stages failed while the
+     *                               pipeline was running. The first failure is
+     *                               the cause of the exception.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+
+        for (var thread : expandThreads)
+            thread.interrupt();
+
+        for (var thread : expandThreads)
+            thread.join();
+
+        validate.finish();
+        score.finish();
+        enqueue.finish();
+
+        if (failure.get() != null)
+            throw new IllegalStateException("Search pipeline stage failed!", failure.get());
+    }
+}
@@ -0,0 +1,388 @@
+package net.whg.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.whg.graph.DataType;
+import net.whg.graph.Graph;
+import net.whg.graph.Move;
+import net.whg.graph.NodeType;
+import net.whg.util.Hashing;
+
+/**
+ * An immutable, compiled view of an {@link Environment}. All node types,
+ * axioms, and heuristics are copied into arrays, and every data type that is
+ * used as an input argument is mapped to the node type outputs that can be
+ * connected to it. Expanding a graph therefore only visits node types that can
+ * actually fill the open input slot.
+ * <p>
+ * A search space is created by {@link Environment#compile()}, after which the
+ * environment can no longer be changed.
+ */
+public final class SearchSpace {
+    /**
+     * A node type output that can be connected to an input argument.
+     * 
+     * @param nodeType    - The node type to add.
+     * @param outputIndex - The output argument index of the node type.
+     */
+    public record Producer(NodeType nodeType, int outputIndex) {
+    }
+
+    private final Environment environment;
+    private final NodeType inputNodeType;
+    private final NodeType outputNodeType;
+    private final List<NodeType> nodeTypes;
+    private final Axiom[] axioms;
+    private final IncrementalAxiom<Object>[] incrementalAxioms;
+    private final BatchHeuristic[] heuristics;
+    private final Map<DataType, List<Producer>> producers;
+    private final Map<NodeType, Integer> nodeTypeIndices = new IdentityHashMap<>();
+    private final long signatureHash;
+
+    SearchSpace(Environment environment) {
+        this.environment = environment;
+        inputNodeType = environment.getInputNodeType();
+        outputNodeType = environment.getOutputNodeType();
+        nodeTypes = List.copyOf(environment.getNodeTypes());
+        incrementalAxioms = findIncrementalAxioms(environment.getAxioms());
+        axioms = environment.getAxioms().stream()
+                .filter(axiom -> !(axiom instanceof IncrementalAxiom))
+                .toArray(Axiom[]::new);
+        heuristics = environment.getHeuristics().toArray(new BatchHeuristic[0]);
+
+        var hash = Hashing.start();
+        for (var i = 0; i < nodeTypes.size(); i++) {
+            nodeTypeIndices.putIfAbsent(nodeTypes.get(i), i);
+            hash = Hashing.mix(hash, nodeTypes.get(i).getSignatureHash());
+        }
+
+        signatureHash = hash;
+
+        var table = new IdentityHashMap<DataType, List<Producer>>();
+        for (var nodeType : nodeTypes) {
+            for (var i = 0; i < nodeType.getInputCount(); i++) {
+                var dataType = nodeType.getInput(i);
+                if (!table.containsKey(dataType))
+                    table.put(dataType, findProducers(dataType));
+            }
+        }
+
+        producers = table;
+    }
+
+    private List<Producer> findProducers(DataType dataType) {
+        var list = new ArrayList<Producer>();
+
+        for (var nodeType : nodeTypes) {
+            if (nodeType.isInputType() || nodeType.isOutputType())
+                continue;
+
+            for (var outputIndex = 0; outputIndex < nodeType.getOutputCount(); outputIndex++) {
+                if (nodeType.getOutput(outputIndex).isInstanceOf(dataType))
+                    list.add(new Producer(nodeType, outputIndex));
+            }
+        }
+
+        return List.copyOf(list);
+    }
+
+    /**
+     * Gets the environment this search space was compiled from.
+     * 
+     * @return The environment.
+     */
+    public Environment getEnvironment() {
+        return environment;
+    }
+
+    /**
+     * Gets the node type that is marked as an input type.
+     * 
+     * @return The input node type, or null if there is no input node type.
+     */
+    public NodeType getInputNodeType() {
+        return inputNodeType;
+    }
+
+    /**
+     * Gets the node type that is marked as an output type.
+     * 
+     * @return The output node type, or null if there is no output node type.
+     */
+    public NodeType getOutputNodeType() {
+        return outputNodeType;
+    }
+
+    /**
+     * Gets a read-only list of all node types.
+     * 
+     * @return The list of all node types.
+     */
+    public List<NodeType> getNodeTypes() {
+        return nodeTypes;
+    }
+
+    /**
+     * Gets a hash of the signatures of all node types in this search space, in
+     * order. Two search spaces with the same hash index their node types the same
+     * way, so graphs encoded against one can be decoded against the other.
+     * 
+     * @return The signature hash.
+     */
+    public long getSignatureHash() {
+        return signatureHash;
+    }
+
+    /**
+     * Gets the index of a node type within {@link #getNodeTypes()}.
+     * 
+     * @param nodeType - The node type.
+     * @return The index of the node type.
+     * @throws IllegalArgumentException If the node type is not part of this
+     *                                  search space.
+     */
+    public int getNodeTypeIndex(NodeType nodeType) {
+        var index = nodeTypeIndices.get(nodeType);
+        if (index == null)
+            throw new IllegalArgumentException("Node type is not part of this search space!");
+
+        return index;
+    }
+
+    /**
+     * Gets all node type outputs that can be connected to an input argument of
+     * the given data type. The input and output node types are never included.
+     * Producers are listed in the order their node types were added to the
+     * environment, and then by output index.
+     * 
+     * @param dataType - The data type of the input argument.
+     * @return A read-only list of producers.
+     */
+    public List<Producer> getProducers(DataType dataType) {
+        var list = producers.get(dataType);
+        return list != null ? list : findProducers(dataType);
+    }
+
+    /**
+     * Checks if the provided graph passes all axioms in this search space.
+     * {@link IncrementalAxiom}s verify the move that created the graph from the
+     * states cached on its parent, and run before all other axioms. The states
+     * of the graph are cached on it if it is valid.
+     * 
+     * @param graph - The graph to test.
+     * @return True if the graph passes all axioms. False otherwise.
+     */
+    public boolean isValid(Graph graph) {
+        if (incrementalAxioms.length == 0)
+            return verifyGraph(graph);
+
+        var parent = graph.getParent();
+        if (parent == null)
+            return getAxiomStates(graph) != null && verifyGraph(graph);
+
+        var parentStates = getAxiomStates(parent);
+        var states = parentStates == null ? null : verifyMove(parentStates.states(), parent, graph.getMove());
+        if (states == null || !verifyGraph(graph))
+            return false;
+
+        cacheAxiomStates(graph, states, parentStates);
+        return true;
+    }
+
+    /**
+     * Adds every valid child graph of a graph to the given list. Each move is
+     * first judged by the {@link IncrementalAxiom}s, and only the moves that pass
+     * are turned into child graphs and checked against the other axioms.
+     * 
+     * @param parent   - The graph to expand.
+     * @param moves    - The moves of the graph, as created by
+     *                 {@link Graph#getMoves(List, SearchSpace)}.
+     * @param children - The list to add the valid child graphs to.
+     */
+    public void getValidChildGraphs(Graph parent, List<Move> moves, List<Graph> children) {
+        var parentStates = incrementalAxioms.length == 0 ? null : getAxiomStates(parent);
+        if (incrementalAxioms.length > 0 && parentStates == null)
+            return;
+
+        for (var move : moves) {
+            Object[] states = null;
+            if (parentStates != null) {
+                states = verifyMove(parentStates.states(), parent, move);
+                if (states == null)
+                    continue;
+            }
+
+            var child = parent.applyMove(move);
+            if (!verifyGraph(child))
+                continue;
+
+            if (states != null)
+                cacheAxiomStates(child, states, parentStates);
+
+            children.add(child);
+        }
+    }
+
+    /**
+     * Adds every valid child graph of a graph to the given list.
+     * 
+     * @param parent   - The graph to expand.
+     * @param children - The list to add the valid child graphs to.
+     * @see #getValidChildGraphs(Graph, List, List)
+     */
+    public void getValidChildGraphs(Graph parent, List<Graph> children) {
+        var moves = new ArrayList<Move>();
+        parent.getMoves(moves, this);
+        getValidChildGraphs(parent, moves, children);
+    }
+
+    private boolean verifyGraph(Graph graph) {
+        for (var axiom : axioms) {
+            if (!axiom.verifyGraph(graph))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs all incremental axioms on a move. Children share the state array of
+     * their parent unless one of the states changes.
+     * 
+     * @return The states of the child graph, or null if the move is invalid.
+     */
+    private Object[] verifyMove(Object[] parentStates, Graph parent, Move move) {
+        var states = parentStates;
+
+        for (var i = 0; i < incrementalAxioms.length; i++) {
+            var state = incrementalAxioms[i].verifyMove(parentStates[i], parent, move);
+            if (state == null)
+                return null;
+
+            if (state != parentStates[i]) {
+                if (states == parentStates)
+                    states = parentStates.clone();
+
+                states[i] = state;
+            }
+        }
+
+        return states;
+    }
+
+    /**
+     * Gets the cached axiom states of a graph, computing them from scratch if the
+     * graph was not created through this search space, or if its states were
+     * cached by another search space.
+     * 
+     * @param graph - The graph.
+     * @return The axiom states, or null if the graph does not follow one of the
+     *         incremental axioms.
+     */
+    private AxiomStates getAxiomStates(Graph graph) {
+        var cached = graph.getAxiomStates();
+        if (cached != null && cached.owner() == this)
+            return cached;
+
+        var states = new Object[incrementalAxioms.length];
+        for (var i = 0; i < incrementalAxioms.length; i++) {
+            states[i] = incrementalAxioms[i].getState(graph);
+            if (states[i] == null)
+                return null;
+        }
+
+        cached = new AxiomStates(this, states);
+        graph.setAxiomStates(cached);
+        return cached;
+    }
+
+    /**
+     * Caches the axiom states of a child graph. Children whose states did not
+     * change share the cached states of their parent.
+     */
+    private void cacheAxiomStates(Graph child, Object[] states, AxiomStates parentStates) {
+        child.setAxiomStates(parentStates.states() == states ? parentStates : new AxiomStates(this, states));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static IncrementalAxiom<Object>[] findIncrementalAxioms(List<Axiom> axioms) {
+        return axioms.stream()
+                .filter(IncrementalAxiom.class::isInstance)
+                .toArray(IncrementalAxiom[]::new);
+    }
+
+    /**
+     * Gets the sum of all heuristic values calculated for this graph.
+     * 
+     * @param graph - The graph to get the heuristic of.
+     * @return The heuristic value.
+     */
+    public float getHeuristic(Graph graph) {
+        float h = 0;
+
+        for (var heuristic : heuristics) {
+            h += getHeuristic(heuristic, graph);
+        }
+
+        return h;
+    }
+
+    /**
+     * Gets the sum of all heuristic values calculated for each of the provided
+     * graphs. Every heuristic is called once for the whole batch.
+     * 
+     * @param graphs - The graphs to get the heuristics of.
+     * @param values - The array to store the heuristic value of each graph in, at
+     *               the same index as the graph. This must be at least as long as
+     *               the list of graphs.
+     */
+    public void getHeuristics(List<Graph> graphs, float[] values) {
+        var count = graphs.size();
+        Arrays.fill(values, 0, count, 0);
+
+        if (count == 0)
+            return;
+
+        if (heuristics.length == 1) {
+            heuristics[0].getHeuristics(graphs, values);
+            return;
+        }
+
+        var scratch = new float[count];
+        for (var heuristic : heuristics) {
+            heuristic.getHeuristics(graphs, scratch);
+
+            for (var i = 0; i < count; i++)
+                values[i] += scratch[i];
+        }
+    }
+
+    /**
+     * Calculates the heuristic value of a single graph, without creating a batch
+     * for heuristics that score one graph at a time.
+     */
+    static float getHeuristic(BatchHeuristic heuristic, Graph graph) {
+        if (heuristic instanceof Heuristic single)
+            return single.getHeuristic(graph);
+
+        var values = new float[1];
+        heuristic.getHeuristics(List.of(graph), values);
+        return values[0];
+    }
+
+    /**
+     * Gets the sum of all fitness scores calculated for this graph. The graph
+     * should be complete in order to calculate the fitness score.
+     * 
+     * @param graph - The graph to get the fitness of.
+     * @return The fitness score
+     * @see Environment#getFitness(Graph)
+     */
+    public float getFitness(Graph graph) {
+        return environment.getFitness(graph);
+    }
+}
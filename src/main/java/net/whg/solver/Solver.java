@@ -1,44 +1,282 @@
 package net.whg.solver;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Creates and maintains a list of worker threads for navigating the search
- * tree.
+ * tree. A monitor thread watches the search and stops all workers once the
+ * tree runs out of graphs to explore or one of the search limits is reached,
+ * after which the result of the search is completed with the best solution.
+ * Solutions that were pulled out of the tree with {@link Tree#nextSolution()}
+ * while the search was running are not taken into account.
  */
 public class Solver {
+    private static final long MONITOR_MILLIS = 10;
+    private static final int PIPELINE_QUEUE_CAPACITY = 4;
+
+    private final Tree tree;
+    private final SearchLimits limits;
     private final Thread[] threads;
     private final Worker[] workers;
+    private final IterativeDeepeningSearch search;
+    private final SearchPipeline pipeline;
+    private Thread monitor;
+    private final CompletableFuture<GraphResult> result = new CompletableFuture<>();
+    private final long startTime = System.nanoTime();
+    private volatile StopReason stopReason;
 
     /**
-     * Creates and starts a list of new worker daemon threads.
+     * Creates and starts a list of new worker daemon threads that run a best
+     * first search.
      * 
      * @param tree     - The search tree to navigate.
      * @param nWorkers - The number of workers to create.
      */
     public Solver(Tree tree, int nWorkers) {
-        threads = new Thread[nWorkers];
-        workers = new Worker[nWorkers];
-        for (var i = 0; i < nWorkers; i++) {
-            workers[i] = new Worker(tree);
-            threads[i] = new Thread(workers[i]);
-            threads[i].setDaemon(true);
-            threads[i].start();
+        this(tree, nWorkers, SearchMode.BEST_FIRST);
+    }
+
+    /**
+     * Creates and starts a list of new worker daemon threads.
+     * 
+     * @param tree     - The search tree to navigate.
+     * @param nWorkers - The number of workers to create.
+     * @param mode     - The strategy used to navigate the search tree. For
+     *                 {@link SearchMode#ITERATIVE_DEEPENING}, all graphs that are
+     *                 currently open in the tree are used as starting graphs.
+     */
+    public Solver(Tree tree, int nWorkers, SearchMode mode) {
+        this(tree, nWorkers, mode, SearchLimits.NONE);
+    }
+
+    /**
+     * Creates and starts a list of new worker daemon threads.
+     * 
+     * @param tree     - The search tree to navigate.
+     * @param nWorkers - The number of workers to create.
+     * @param mode     - The strategy used to navigate the search tree. For
+     *                 {@link SearchMode#ITERATIVE_DEEPENING}, all graphs that are
+     *                 currently open in the tree are used as starting graphs.
+     *                 For {@link SearchMode#PIPELINE}, the expand, validate and
+     *                 score stages each get this many threads.
+     * @param limits   - The conditions under which the search ends early.
+     */
+    public Solver(Tree tree, int nWorkers, SearchMode mode, SearchLimits limits) {
+        this.tree = tree;
+        this.limits = limits;
+
+        if (mode == SearchMode.PIPELINE) {
+            threads = new Thread[0];
+            workers = new Worker[0];
+            search = null;
+            pipeline = new SearchPipeline(tree, nWorkers, nWorkers, nWorkers, PIPELINE_QUEUE_CAPACITY * nWorkers);
+        } else if (mode == SearchMode.ITERATIVE_DEEPENING) {
+            threads = new Thread[nWorkers];
+            workers = new Worker[0];
+            search = new IterativeDeepeningSearch(tree, nWorkers);
+            pipeline = null;
+            for (var i = 0; i < nWorkers; i++)
+                threads[i] = new Thread(search);
+        } else {
+            threads = new Thread[nWorkers];
+            workers = new Worker[nWorkers];
+            search = null;
+            pipeline = null;
+            for (var i = 0; i < nWorkers; i++) {
+                workers[i] = new Worker(tree);
+                threads[i] = new Thread(workers[i]);
+            }
         }
+
+        start();
+    }
+
+    /**
+     * Watches a search pipeline that is already running, so it ends with the
+     * same limits and result as the other search modes. This allows the stages
+     * of the pipeline to be sized individually.
+     * 
+     * @param tree     - The search tree the pipeline navigates.
+     * @param pipeline - The running search pipeline.
+     * @param limits   - The conditions under which the search ends early.
+     */
+    public Solver(Tree tree, SearchPipeline pipeline, SearchLimits limits) {
+        this.tree = tree;
+        this.limits = limits;
+        this.threads = new Thread[0];
+        this.workers = new Worker[0];
+        this.search = null;
+        this.pipeline = pipeline;
+
+        start();
+    }
+
+    private void start() {
+        for (var thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        monitor = new Thread(this::monitor, "search-monitor");
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    private void monitor() {
+        try {
+            while (true) {
+                var reason = checkLimits();
+                if (reason != null) {
+                    finish(reason);
+                    return;
+                }
+
+                Thread.sleep(MONITOR_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private StopReason checkLimits() {
+        if (getFailure() != null)
+            return StopReason.FAILED;
+
+        var best = tree.peekBestSolution();
+        if (best != null && best.heuristic() >= limits.targetFitness())
+            return StopReason.TARGET_REACHED;
+
+        if (search != null ? search.isFinished() : tree.isQuiescent())
+            return StopReason.EXHAUSTED;
+
+        if (limits.maxExpansions() > 0 && tree.getNumGraphsProcessed() >= limits.maxExpansions())
+            return StopReason.EXPANSION_LIMIT;
+
+        if (limits.maxTime() != null && System.nanoTime() - startTime >= toNanos(limits))
+            return StopReason.TIME_LIMIT;
+
+        return null;
+    }
+
+    /**
+     * Gets the first exception that was thrown by any of the worker threads.
+     */
+    private RuntimeException getFailure() {
+        for (var worker : workers) {
+            if (worker.getFailure() != null)
+                return worker.getFailure();
+        }
+
+        if (search != null)
+            return search.getFailure();
+
+        if (pipeline != null)
+            return pipeline.getFailure();
+
+        return null;
+    }
+
+    private static long toNanos(SearchLimits limits) {
+        try {
+            return limits.maxTime().toNanos();
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Stops all worker threads and completes the result, unless the search has
+     * already finished.
+     */
+    private synchronized void finish(StopReason reason) throws InterruptedException {
+        if (stopReason != null)
+            return;
+
+        stopReason = reason;
+        try {
+            for (var worker : workers)
+                worker.stop();
+
+            if (search != null)
+                search.stop();
+
+            for (var thread : threads)
+                thread.interrupt();
+
+            for (var thread : threads)
+                thread.join();
+
+            if (pipeline != null)
+                stopPipeline();
+        } finally {
+            var failure = getFailure();
+            if (failure != null)
+                result.completeExceptionally(failure);
+            else
+                result.complete(tree.peekBestSolution());
+        }
+    }
+
+    /**
+     * Stops the search pipeline. A failure of one of its stages is not thrown
+     * here, as it is reported through the result of the search instead.
+     */
+    private void stopPipeline() throws InterruptedException {
+        try {
+            pipeline.stop();
+        } catch (IllegalStateException e) {
+            if (e.getCause() != pipeline.getFailure())
+                throw e;
+        }
+    }
+
+    /**
+     * Gets the result of the search. The result is completed with the solution
+     * that has the highest fitness score once the search has finished and all
+     * worker threads have stopped, or with null if no solution was found. If a
+     * heuristic, fitness evaluator or axiom threw an exception while the search
+     * was running, the result is completed exceptionally with the first such
+     * exception instead.
+     * 
+     * @return The result of the search.
+     */
+    public CompletableFuture<GraphResult> getResult() {
+        return result;
+    }
+
+    /**
+     * Gets the reason the search has finished for.
+     * 
+     * @return The reason the search has finished, or null if it is still
+     *         running.
+     */
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * Checks whether or not the search has finished, either because it ran out of
+     * graphs to explore, reached one of its limits, or was stopped.
+     * 
+     * @return True if the search has finished.
+     */
+    public boolean isFinished() {
+        return result.isDone();
     }
 
     /**
      * Triggers all worker threads to stop and waits for them to finish executing.
+     * If the search is still running, it finishes with
+     * {@link StopReason#STOPPED}.
      * 
      * @throws InterruptedException If the thread is interrupted while waiting for
      *                              the threads to stop.
      */
     public void stop() throws InterruptedException {
-        for (var i = 0; i < workers.length; i++) {
-            workers[i].stop();
-            threads[i].interrupt();
-        }
+        finish(StopReason.STOPPED);
 
-        for (var i = 0; i < threads.length; i++) {
-            threads[i].join();
-        }
+        monitor.interrupt();
+        if (Thread.currentThread() != monitor)
+            monitor.join();
     }
 }
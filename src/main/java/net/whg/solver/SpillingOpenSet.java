@@ -0,0 +1,559 @@
+package net.whg.solver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import net.whg.graph.Graph;
+
+/**
+ * An open set that keeps only its best graphs in memory and spills the rest to
+ * disk. The hot tier holds up to a fixed number of graphs in heuristic order.
+ * Whenever it overflows, its worst graph is moved to the cold tier, where it is
+ * encoded as the list of moves that lead to it from the base graph and
+ * appended to a single buffer shared by all heuristic buckets. When the buffer
+ * is full, it is written to disk as a segment file with its records grouped by
+ * bucket, and each bucket remembers where its records are within the segment.
+ * Segments hold a few thousand graphs in only a few bytes per connection, and
+ * the memory used by the cold tier is one buffer plus one small index entry per
+ * bucket and segment, no matter how many buckets are in use.
+ * <p>
+ * When the hot tier runs empty, or when the cold tier holds a bucket that is
+ * better than the bucket of the best hot graph, the oldest records of the best
+ * cold bucket are memory mapped and read back into the hot tier. A segment file
+ * is deleted once all of its records were read back. Ordering is
+ * therefore exact across buckets but only approximate within a bucket, as
+ * graphs of the same bucket may be returned in the order they were read back.
+ * Graphs that are read back no longer share their ancestors with other graphs
+ * in memory, except with graphs read from the same segment directly before
+ * them.
+ * <p>
+ * The hot tier should be able to hold several segments worth of graphs, or
+ * graphs may be spilled and read back repeatedly. All graphs in this open set
+ * must belong to the same search tree, and the open set should be closed once
+ * the search is finished to remove its segment files.
+ */
+public class SpillingOpenSet implements OpenSet, Closeable {
+    private record Entry(GraphResult result, long sequence) implements Comparable<Entry> {
+        @Override
+        public int compareTo(Entry o) {
+            var c = result.compareTo(o.result);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    /**
+     * The records of a single bucket within a segment file.
+     */
+    private record Extent(long segment, int start, int end, int count) {
+    }
+
+    private static class Bucket {
+        private final ArrayDeque<Extent> extents = new ArrayDeque<>();
+        private int buffered;
+
+        private boolean isEmpty() {
+            return extents.isEmpty() && buffered == 0;
+        }
+    }
+
+    private static class Segment {
+        private final Path file;
+        private int extents;
+
+        private Segment(Path file, int extents) {
+            this.file = file;
+            this.extents = extents;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final TreeSet<Entry> hot = new TreeSet<>();
+    private final TreeMap<Long, Bucket> cold = new TreeMap<>();
+    private final HashMap<Long, Segment> segments = new HashMap<>();
+    private final BitSet bufferedTaken = new BitSet();
+    private final SearchSpace space;
+    private final Path directory;
+    private final int hotCapacity;
+    private final float bucketWidth;
+    private final int segmentBytes;
+    private final ByteBuffer buffer;
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder restored = new LongAdder();
+    private Graph root;
+    private long sequence;
+    private long[] bufferedKeys = new long[256];
+    private int[] bufferedStarts = new int[256];
+    private int bufferedCount;
+    private long segmentCount;
+    private int segmentsOnDisk;
+    private volatile int size;
+
+    /**
+     * Creates a new SpillingOpenSet with heuristic buckets of width 1 and segments
+     * of 1 MiB.
+     * 
+     * @param space       - The search space of the search tree.
+     * @param directory   - The directory to store segment files in. This is
+     *                    created if it does not exist.
+     * @param hotCapacity - The number of graphs to keep in memory.
+     * @throws IOException              If the directory could not be created.
+     * @throws IllegalArgumentException If the hot capacity is less than 1.
+     */
+    public SpillingOpenSet(SearchSpace space, Path directory, int hotCapacity) throws IOException {
+        this(space, directory, hotCapacity, 1, 1 << 20);
+    }
+
+    /**
+     * Creates a new SpillingOpenSet.
+     * 
+     * @param space        - The search space of the search tree.
+     * @param directory    - The directory to store segment files in. This is
+     *                     created if it does not exist.
+     * @param hotCapacity  - The number of graphs to keep in memory.
+     * @param bucketWidth  - The range of heuristic values that are stored in the
+     *                     same bucket. Graphs within a bucket are only
+     *                     approximately ordered.
+     * @param segmentBytes - The size of each segment file in bytes. This open set
+     *                     keeps one buffer of this size in memory.
+     * @throws IOException              If the directory could not be created.
+     * @throws IllegalArgumentException If the hot capacity is less than 1, the
+     *                                  bucket width is not positive, or the
+     *                                  segment size is less than 4 KiB.
+     */
+    public SpillingOpenSet(SearchSpace space, Path directory, int hotCapacity, float bucketWidth, int segmentBytes)
+            throws IOException {
+        if (hotCapacity < 1)
+            throw new IllegalArgumentException("Hot capacity must be at least 1!");
+
+        if (!(bucketWidth > 0))
+            throw new IllegalArgumentException("Bucket width must be positive!");
+
+        if (segmentBytes < 4096)
+            throw new IllegalArgumentException("Segments must be at least 4 KiB!");
+
+        this.space = space;
+        this.directory = Files.createDirectories(directory);
+        this.hotCapacity = hotCapacity;
+        this.bucketWidth = bucketWidth;
+        this.segmentBytes = segmentBytes;
+        this.buffer = ByteBuffer.allocate(segmentBytes);
+    }
+
+    @Override
+    public void put(GraphResult result) {
+        lock.lock();
+        try {
+            hot.add(new Entry(result, sequence++));
+            spillOverflow();
+
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public GraphResult take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0)
+                notEmpty.await();
+
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public GraphResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        var nanos = unit.toNanos(timeout);
+
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0)
+                    return null;
+
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private GraphResult removeFirst() {
+        if (hot.isEmpty())
+            restore();
+
+        while (!cold.isEmpty() && cold.lastKey() > bucketOf(hot.first().result.heuristic()))
+            restore();
+
+        size--;
+        return hot.pollFirst().result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Graphs in the cold tier are read back from disk one bucket segment at a
+     * time while this open set is locked, but are not moved back into the hot
+     * tier.
+     */
+    @Override
+    public void forEach(Consumer<? super GraphResult> action) {
+        lock.lock();
+        try {
+            for (var entry : hot)
+                action.accept(entry.result);
+
+            for (var bucket : cold.values()) {
+                for (var extent : bucket.extents)
+                    readExtent(extent).forEach(action);
+            }
+
+            var view = buffer.duplicate();
+            var reader = new GraphRecords.Reader(root, space);
+            for (var i = 0; i < bufferedCount; i++) {
+                if (!bufferedTaken.get(i))
+                    action.accept(reader.read(view.position(bufferedStarts[i])));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the record of every graph in this open set. Graphs in the cold tier
+     * are copied from disk as they are, without being read back into graphs.
+     * 
+     * @param out - The writer to write the records to.
+     * @throws IOException If a segment could not be read, or the records could
+     *                     not be written.
+     */
+    void writeRecords(GraphRecords.Writer out) throws IOException {
+        lock.lock();
+        try {
+            for (var entry : hot)
+                out.write(entry.result);
+
+            for (var bucket : cold.values()) {
+                for (var extent : bucket.extents) {
+                    var mapped = map(segments.get(extent.segment()).file);
+                    out.writeEncoded(mapped.limit(extent.end()).position(extent.start()), extent.count());
+                }
+            }
+
+            for (var i = 0; i < bufferedCount; i++) {
+                if (!bufferedTaken.get(i))
+                    out.writeEncoded(buffer.duplicate().limit(bufferedEnd(i)).position(bufferedStarts[i]), 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private long bucketOf(float heuristic) {
+        if (Float.isNaN(heuristic))
+            return Long.MAX_VALUE;
+
+        return (long) Math.floor(heuristic / bucketWidth);
+    }
+
+    private void spillOverflow() {
+        while (hot.size() > hotCapacity)
+            spill(hot.pollLast().result);
+    }
+
+    private void spill(GraphResult result) {
+        var graph = result.graph();
+        if (root == null)
+            root = graph.getRoot();
+        else if (graph.getRoot() != root)
+            throw new IllegalArgumentException("Graph belongs to a different search tree!");
+
+        var recordBytes = GraphRecords.size(graph);
+        if (recordBytes > segmentBytes)
+            throw new IllegalArgumentException("Graph is too large to fit in a segment!");
+
+        if (buffer.remaining() < recordBytes)
+            writeSegment();
+
+        var key = bucketOf(result.heuristic());
+        if (bufferedCount == bufferedKeys.length) {
+            bufferedKeys = Arrays.copyOf(bufferedKeys, bufferedCount * 2);
+            bufferedStarts = Arrays.copyOf(bufferedStarts, bufferedCount * 2);
+        }
+
+        bufferedKeys[bufferedCount] = key;
+        bufferedStarts[bufferedCount] = buffer.position();
+        bufferedCount++;
+
+        GraphRecords.write(buffer, result, space);
+        cold.computeIfAbsent(key, k -> new Bucket()).buffered++;
+
+        spilled.increment();
+    }
+
+    private int bufferedEnd(int record) {
+        return record + 1 < bufferedCount ? bufferedStarts[record + 1] : buffer.position();
+    }
+
+    /**
+     * Writes the records in the buffer that were not read back yet to a new
+     * segment file, grouped by bucket in the order they were spilled, and clears
+     * the buffer.
+     */
+    private void writeSegment() {
+        var live = new ArrayList<Integer>();
+        for (var i = 0; i < bufferedCount; i++) {
+            if (!bufferedTaken.get(i))
+                live.add(i);
+        }
+
+        if (live.isEmpty()) {
+            clearBuffer();
+            return;
+        }
+
+        live.sort(Comparator.comparingLong((Integer i) -> bufferedKeys[i]));
+
+        var id = segmentCount++;
+        var file = directory.resolve("segment-" + id + ".bin");
+        var bytes = new byte[buffer.position()];
+        var extents = new ArrayList<Extent>();
+        var length = 0;
+
+        for (var i = 0; i < live.size(); i++) {
+            var record = live.get(i);
+            var start = bufferedStarts[record];
+            var end = bufferedEnd(record);
+
+            if (i == 0 || bufferedKeys[live.get(i - 1)] != bufferedKeys[record])
+                extents.add(new Extent(id, length, length, 0));
+
+            System.arraycopy(buffer.array(), start, bytes, length, end - start);
+            length += end - start;
+
+            var last = extents.size() - 1;
+            var extent = extents.get(last);
+            extents.set(last, new Extent(id, extent.start(), length, extent.count() + 1));
+        }
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            var out = ByteBuffer.wrap(bytes, 0, length);
+            while (out.hasRemaining())
+                channel.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        var index = 0;
+        for (var i = 0; i < live.size(); i++) {
+            var record = live.get(i);
+            if (i > 0 && bufferedKeys[live.get(i - 1)] == bufferedKeys[record])
+                continue;
+
+            var bucket = cold.get(bufferedKeys[record]);
+            bucket.extents.add(extents.get(index++));
+        }
+
+        for (var record : live)
+            cold.get(bufferedKeys[record]).buffered--;
+
+        segments.put(id, new Segment(file, extents.size()));
+        segmentsOnDisk++;
+        clearBuffer();
+    }
+
+    private void clearBuffer() {
+        buffer.clear();
+        bufferedTaken.clear();
+        bufferedCount = 0;
+    }
+
+    /**
+     * Reads the oldest records of the best cold bucket back into the hot tier.
+     * The records are only removed from the cold tier once they were all read
+     * successfully.
+     */
+    private void restore() {
+        var best = cold.lastEntry();
+        var bucket = best.getValue();
+
+        if (!bucket.extents.isEmpty()) {
+            var extent = bucket.extents.peekFirst();
+            var results = readExtent(extent);
+
+            bucket.extents.pollFirst();
+            addRestored(results);
+
+            var segment = segments.get(extent.segment());
+            if (--segment.extents == 0) {
+                segments.remove(extent.segment());
+                segmentsOnDisk--;
+
+                try {
+                    Files.delete(segment.file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        } else {
+            var results = new ArrayList<GraphResult>();
+            var records = new ArrayList<Integer>();
+            var view = buffer.duplicate();
+            var reader = new GraphRecords.Reader(root, space);
+
+            for (var i = 0; i < bufferedCount; i++) {
+                if (bufferedTaken.get(i) || bufferedKeys[i] != best.getKey())
+                    continue;
+
+                results.add(reader.read(view.position(bufferedStarts[i])));
+                records.add(i);
+            }
+
+            for (var record : records)
+                bufferedTaken.set(record);
+
+            bucket.buffered = 0;
+            addRestored(results);
+
+            if (bufferedTaken.cardinality() == bufferedCount)
+                clearBuffer();
+        }
+
+        if (bucket.isEmpty())
+            cold.remove(best.getKey());
+
+        spillOverflow();
+    }
+
+    private List<GraphResult> readExtent(Extent extent) {
+        try {
+            var mapped = map(segments.get(extent.segment()).file);
+            var reader = new GraphRecords.Reader(root, space);
+            var results = new ArrayList<GraphResult>();
+
+            mapped.position(extent.start());
+            while (mapped.position() < extent.end())
+                results.add(reader.read(mapped));
+
+            return results;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private void addRestored(List<GraphResult> results) {
+        for (var result : results)
+            hot.add(new Entry(result, sequence++));
+
+        restored.add(results.size());
+    }
+
+    /**
+     * Gets the number of graphs that were moved from memory to the cold tier.
+     * 
+     * @return The number of spilled graphs.
+     */
+    public long getSpilledCount() {
+        return spilled.sum();
+    }
+
+    /**
+     * Gets the number of graphs that were read back from the cold tier.
+     * 
+     * @return The number of restored graphs.
+     */
+    public long getRestoredCount() {
+        return restored.sum();
+    }
+
+    /**
+     * Gets the number of segment files currently stored on disk.
+     * 
+     * @return The number of segment files.
+     */
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segmentsOnDisk;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of graphs currently kept in memory.
+     * 
+     * @return The number of graphs in the hot tier.
+     */
+    public int getHotSize() {
+        lock.lock();
+        try {
+            return hot.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all segment files of this open set. The open set should not be used
+     * afterwards.
+     * 
+     * @throws IOException If a segment file could not be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            for (var segment : segments.values())
+                Files.deleteIfExists(segment.file);
+
+            segments.clear();
+            cold.clear();
+            hot.clear();
+            clearBuffer();
+            segmentsOnDisk = 0;
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package net.whg.solver;
+
+/**
+ * The reasons a {@link Solver} can end its search for.
+ */
+public enum StopReason {
+    /**
+     * Every graph has been explored. All workers are idle and no open graphs are
+     * left within the tree.
+     */
+    EXHAUSTED,
+
+    /**
+     * A solution reached the target fitness.
+     */
+    TARGET_REACHED,
+
+    /**
+     * The search expanded as many graphs as it was allowed to.
+     */
+    EXPANSION_LIMIT,
+
+    /**
+     * The search ran for as long as it was allowed to.
+     */
+    TIME_LIMIT,
+
+    /**
+     * The search was stopped by calling {@link Solver#stop()}.
+     */
+    STOPPED,
+
+    /**
+     * Expanding a graph threw an exception, such as a failing heuristic, fitness
+     * evaluator or axiom, in any of the search modes. The result of the search
+     * is completed exceptionally with the first failure.
+     */
+    FAILED
+}
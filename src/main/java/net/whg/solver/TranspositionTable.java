@@ -0,0 +1,94 @@
+package net.whg.solver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.whg.graph.Graph;
+
+/**
+ * A fixed size, lock free table of canonical graph hashes that have already
+ * been seen within a search tree. The same graph can be reached through many
+ * different orders of adding nodes, and this table allows those duplicates to
+ * be dropped before they are scored and stored again.
+ * <p>
+ * The table is direct mapped: each hash has exactly one slot it can be stored
+ * in, and storing a hash replaces whatever hash was in that slot before. Memory
+ * usage is therefore fixed at 8 bytes per slot, at the cost of occasionally
+ * forgetting an older graph and letting a later duplicate of it through. Two
+ * different graphs are only confused with each other if their 64-bit canonical
+ * hashes collide.
+ */
+public class TranspositionTable {
+    private final AtomicLongArray table;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a new TranspositionTable.
+     * 
+     * @param capacity - The number of slots in this table. This is rounded up to
+     *                 the next power of two.
+     * @throws IllegalArgumentException If the capacity is less than 1.
+     */
+    public TranspositionTable(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1!");
+
+        var size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+
+        table = new AtomicLongArray(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Marks the given graph as seen. This function is may be called from any
+     * thread.
+     * 
+     * @param graph - The graph to mark.
+     * @return True if the graph had not been seen before, false if it is a
+     *         duplicate of a graph that is already in this table.
+     */
+    public boolean visit(Graph graph) {
+        var hash = graph.getCanonicalHash();
+        var slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+        if (table.get(slot) == hash) {
+            hits.increment();
+            return false;
+        }
+
+        table.set(slot, hash);
+        misses.increment();
+        return true;
+    }
+
+    /**
+     * Gets the number of graphs that were rejected as duplicates.
+     * 
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of graphs that were not found in this table.
+     * 
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of slots in this table.
+     * 
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return table.length();
+    }
+}
@@ -1,48 +1,150 @@
 package net.whg.solver;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.whg.graph.Graph;
 
 /**
  * Mains a set of pending graphs and solutions that represent the current
- * position within the node graph search tree. Note that the environment should
- * not be changed at any time after the tree is created, otherwise the search
- * space might be contaminated.
+ * position within the node graph search tree. Creating a tree compiles the
+ * environment into a {@link SearchSpace}, so the environment can no longer be
+ * changed once the search has started.
  */
 public class Tree {
-    private final PriorityBlockingQueue<GraphResult> open = new PriorityBlockingQueue<>();
+    private static final int CHECKPOINT_MAGIC = 0x43445854;
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final long EXPANSION_POLL_MILLIS = 10;
+
+    private final String graphName;
+    private final OpenSet open;
     private final PriorityBlockingQueue<GraphResult> solutions = new PriorityBlockingQueue<>();
     private final Environment env;
+    private final SearchSpace space;
     private final AtomicInteger numGraphsProcessed = new AtomicInteger(0);
     private final AtomicInteger numSolutionsFound = new AtomicInteger(0);
+    private final TranspositionTable transpositions;
+    private final ExpansionGate expansionGate = new ExpansionGate();
 
     /**
-     * Creates and initializes a new node graph search tree object.
+     * Creates and initializes a new node graph search tree object without
+     * duplicate detection. The built-in child graph generation always fills the
+     * next open input slot, so it reaches every graph structure exactly once.
+     * Graphs that only differ in the order of the input arguments of commutative
+     * node types can still be reached several times, and are only dropped by a
+     * transposition table.
      * 
      * @param graphName - The name of the graph.
      * @param env       - The environment to create new graphs from.
      */
     public Tree(String graphName, Environment env) {
+        this(graphName, env, 0);
+    }
+
+    /**
+     * Creates and initializes a new node graph search tree object.
+     * 
+     * @param graphName              - The name of the graph.
+     * @param env                    - The environment to create new graphs from.
+     * @param transpositionTableSize - The number of slots in the transposition
+     *                               table used to drop duplicate graphs, or 0 to
+     *                               disable duplicate detection. Each slot takes
+     *                               up 8 bytes.
+     */
+    public Tree(String graphName, Environment env, int transpositionTableSize) {
+        this(graphName, env, transpositionTableSize, new PriorityOpenSet());
+    }
+
+    /**
+     * Creates and initializes a new node graph search tree object.
+     * 
+     * @param graphName              - The name of the graph.
+     * @param env                    - The environment to create new graphs from.
+     * @param transpositionTableSize - The number of slots in the transposition
+     *                               table used to drop duplicate graphs, or 0 to
+     *                               disable duplicate detection. Each slot takes
+     *                               up 8 bytes.
+     * @param open                   - The open set to store unprocessed graphs in.
+     *                               This should be empty.
+     */
+    public Tree(String graphName, Environment env, int transpositionTableSize, OpenSet open) {
+        this(graphName, env, transpositionTableSize, open, true);
+    }
+
+    private Tree(String graphName, Environment env, int transpositionTableSize, OpenSet open, boolean seed) {
+        this.graphName = graphName;
         this.env = env;
+        this.open = open;
+        this.space = env.compile();
+        this.transpositions = transpositionTableSize > 0 ? new TranspositionTable(transpositionTableSize) : null;
 
-        var baseGraph = new Graph(graphName, env.getInputNodeType(), env.getOutputNodeType());
-        open.add(new GraphResult(baseGraph, 0));
+        if (seed) {
+            var baseGraph = createBaseGraph();
+            markVisited(baseGraph);
+            open.put(new GraphResult(baseGraph, 0));
+        }
+    }
+
+    private Graph createBaseGraph() {
+        return new Graph(graphName, space.getInputNodeType(), space.getOutputNodeType());
     }
 
     /**
-     * Pulls the next open graph out of this tree. This method blocks until a graph
-     * becomes available.
+     * Pulls the next open graph out of this tree to be expanded. The expansion is
+     * tracked so that checkpoints never see the graph after it was removed but
+     * before its children were added, and so that this tree is not reported as
+     * quiescent while its children are still on their way. Every call must be
+     * followed by exactly one call to {@link #endExpansion()} once all children
+     * have been added. This call may come from a different thread.
      * 
      * @return The next open graph.
      * @throws InterruptedException If the thread is interrupted while waiting for a
      *                              graph to become available.
      */
-    public Graph nextGraph() throws InterruptedException {
-        var graph = open.take().graph();
+    Graph beginExpansion() throws InterruptedException {
+        while (true) {
+            expansionGate.enter();
+
+            GraphResult result;
+            try {
+                result = open.poll(EXPANSION_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                expansionGate.exit();
+                throw e;
+            }
+
+            if (result != null) {
+                numGraphsProcessed.incrementAndGet();
+                return result.graph();
+            }
+
+            expansionGate.exit();
+        }
+    }
+
+    /**
+     * Counts a graph that was expanded without being pulled out of this tree.
+     */
+    void countProcessed() {
         numGraphsProcessed.incrementAndGet();
-        return graph;
+    }
+
+    /**
+     * Marks the expansion started by {@link #beginExpansion()} as finished.
+     */
+    void endExpansion() {
+        expansionGate.exit();
     }
 
     /**
@@ -58,6 +160,39 @@ public class Tree {
         return solutions.take();
     }
 
+    /**
+     * Checks whether or not this tree has run out of graphs to explore. This is
+     * the case when no graphs are open and no graph is currently being expanded,
+     * so no new graphs can appear. If the open set looks empty, expansions are
+     * briefly paused to make sure no children are still on their way.
+     * 
+     * @return True if this tree has no open graphs and no expansions in
+     *         progress.
+     */
+    public boolean isQuiescent() {
+        if (open.size() > 0)
+            return false;
+
+        expansionGate.pause();
+        try {
+            return open.size() == 0;
+        } finally {
+            expansionGate.resume();
+        }
+    }
+
+    /**
+     * Marks a graph as seen within this tree. Graphs that have the same structure
+     * as a previously seen graph should not be placed back into this tree.
+     * 
+     * @param graph - The graph to check.
+     * @return True if the graph has not been seen before, or if duplicate
+     *         detection is disabled. False if the graph is a duplicate.
+     */
+    boolean markVisited(Graph graph) {
+        return transpositions == null || transpositions.visit(graph);
+    }
+
     /**
      * Puts an open, valid graph node back into this tree to be processed later.
      * 
@@ -88,6 +223,15 @@ public class Tree {
         return env;
     }
 
+    /**
+     * Gets the compiled search space of the environment of this search tree.
+     * 
+     * @return The search space.
+     */
+    public SearchSpace getSearchSpace() {
+        return space;
+    }
+
     /**
      * Gets the total number of processed graphs across all worker threads.
      * 
@@ -106,6 +250,35 @@ public class Tree {
         return numSolutionsFound.get();
     }
 
+    /**
+     * Gets the number of generated graphs that were dropped because they were
+     * duplicates of an already seen graph.
+     * 
+     * @return The number of transposition table hits.
+     */
+    public long getTranspositionHits() {
+        return transpositions == null ? 0 : transpositions.getHits();
+    }
+
+    /**
+     * Gets the number of generated graphs that were not found in the
+     * transposition table.
+     * 
+     * @return The number of transposition table misses.
+     */
+    public long getTranspositionMisses() {
+        return transpositions == null ? 0 : transpositions.getMisses();
+    }
+
+    /**
+     * Gets the open set that stores the unprocessed graphs of this tree.
+     * 
+     * @return The open set.
+     */
+    public OpenSet getOpenSet() {
+        return open;
+    }
+
     /**
      * Gets the current number of open graphs within this tree.
      * 
@@ -115,6 +288,195 @@ public class Tree {
         return open.size();
     }
 
+    /**
+     * Writes a snapshot of this tree to a file. The snapshot holds the open
+     * graphs, the discovered solutions and the counters of this tree. Workers may
+     * keep running while the snapshot is taken: they are only paused while the
+     * open graphs and solutions are written, which waits for every graph that is
+     * currently being expanded to finish. Open graphs are written to the file as
+     * they are visited rather than collected first, and a
+     * {@link SpillingOpenSet} copies the records of its cold tier without
+     * reading them back, so open sets that do not fit in memory can be
+     * checkpointed as well. The file is replaced atomically, so an interrupted
+     * checkpoint never leaves a partial file behind. The transposition table is
+     * not included.
+     * 
+     * @param file - The file to write the snapshot to.
+     * @throws IOException If the file could not be written.
+     * @see #restore(Path, Environment, int, OpenSet)
+     */
+    public void checkpoint(Path file) throws IOException {
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            var name = graphName.getBytes(StandardCharsets.UTF_8);
+            var header = ByteBuffer.allocate(36 + name.length);
+            var out = new GraphRecords.Writer(channel, space);
+
+            header.putInt(CHECKPOINT_MAGIC);
+            header.putInt(CHECKPOINT_VERSION);
+            header.putLong(space.getSignatureHash());
+            header.putInt(name.length);
+            header.put(name);
+
+            var counts = header.position();
+            header.position(counts + 16).flip();
+            while (header.hasRemaining())
+                channel.write(header);
+
+            int processed;
+            int found;
+            int openCount;
+
+            expansionGate.pause();
+            try {
+                processed = numGraphsProcessed.get();
+                found = numSolutionsFound.get();
+
+                writeOpenGraphs(out);
+                openCount = out.getCount();
+
+                for (var solution : solutions.toArray(new GraphResult[0]))
+                    out.write(solution);
+            } finally {
+                expansionGate.resume();
+            }
+
+            out.flush();
+
+            header.clear();
+            header.putInt(processed);
+            header.putInt(found);
+            header.putInt(openCount);
+            header.putInt(out.getCount() - openCount);
+            writeAt(channel, header.flip(), counts);
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeOpenGraphs(GraphRecords.Writer out) throws IOException {
+        if (open instanceof SpillingOpenSet spilling) {
+            spilling.writeRecords(out);
+            return;
+        }
+
+        try {
+            open.forEach(result -> {
+                try {
+                    out.write(result);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    /**
+     * Restores a search tree from a snapshot, without duplicate detection, and
+     * with a default open set.
+     * 
+     * @param file - The snapshot file written by {@link #checkpoint(Path)}.
+     * @param env  - The environment the snapshot was taken with.
+     * @return The restored tree.
+     * @throws IOException              If the file could not be read, or is not a
+     *                                  valid snapshot.
+     * @throws IllegalArgumentException If the environment does not match the
+     *                                  environment the snapshot was taken with.
+     */
+    public static Tree restore(Path file, Environment env) throws IOException {
+        return restore(file, env, 0, new PriorityOpenSet());
+    }
+
+    /**
+     * Restores a search tree from a snapshot. The environment must contain the
+     * same node types, in the same order, as the environment the snapshot was
+     * taken with. The restored open graphs are marked as seen in the new
+     * transposition table, if there is one.
+     * 
+     * @param file                   - The snapshot file written by
+     *                               {@link #checkpoint(Path)}.
+     * @param env                    - The environment the snapshot was taken
+     *                               with.
+     * @param transpositionTableSize - The number of slots in the transposition
+     *                               table used to drop duplicate graphs, or 0 to
+     *                               disable duplicate detection.
+     * @param open                   - The open set to store unprocessed graphs in.
+     *                               This should be empty.
+     * @return The restored tree.
+     * @throws IOException              If the file could not be read, or is not a
+     *                                  valid snapshot.
+     * @throws IllegalArgumentException If the environment does not match the
+     *                                  environment the snapshot was taken with.
+     */
+    public static Tree restore(Path file, Environment env, int transpositionTableSize, OpenSet open)
+            throws IOException {
+        ByteBuffer buffer;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Snapshot is too large to read!");
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        String name;
+        long signatureHash;
+        int processed;
+        int found;
+        int openCount;
+        int solutionCount;
+
+        try {
+            if (buffer.getInt() != CHECKPOINT_MAGIC)
+                throw new IOException("Not a search tree snapshot!");
+
+            if (buffer.getInt() != CHECKPOINT_VERSION)
+                throw new IOException("Unsupported snapshot version!");
+
+            signatureHash = buffer.getLong();
+            var nameBytes = new byte[buffer.getInt()];
+            buffer.get(nameBytes);
+            name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            processed = buffer.getInt();
+            found = buffer.getInt();
+            openCount = buffer.getInt();
+            solutionCount = buffer.getInt();
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("Snapshot is corrupted!", e);
+        }
+
+        if (env.compile().getSignatureHash() != signatureHash)
+            throw new IllegalArgumentException("Snapshot was taken with a different environment!");
+
+        var tree = new Tree(name, env, transpositionTableSize, open, false);
+        tree.numGraphsProcessed.set(processed);
+        tree.numSolutionsFound.set(found);
+
+        try {
+            var reader = new GraphRecords.Reader(tree.createBaseGraph(), tree.space);
+            for (var i = 0; i < openCount; i++) {
+                var result = reader.read(buffer);
+                tree.markVisited(result.graph());
+                open.put(result);
+            }
+
+            for (var i = 0; i < solutionCount; i++)
+                tree.solutions.put(reader.read(buffer));
+        } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Snapshot is corrupted!", e);
+        }
+
+        return tree;
+    }
+
     /**
      * Gets the best solution (as defined by having the highest fitness score)
      * currently in this tree, but does not remove it from this tree. This method is
@@ -4,16 +4,24 @@ import java.util.ArrayList;
 import java.util.List;
 
 import net.whg.graph.Graph;
+import net.whg.graph.Move;
 
 /**
  * A worker runnable that will pull the next available graph out of a tree,
  * process all children, and put those children back into the tree each
  * iteration. When running, this action is repeated endlessly until stopped.
+ * If processing a graph throws an exception, the children of that graph are
+ * dropped and the exception is recorded, and the worker moves on to the next
+ * graph. The first failure is available from {@link #getFailure()}.
  */
 public class Worker implements Runnable {
+    private final List<Move> moves = new ArrayList<>();
     private final List<Graph> buffer = new ArrayList<>();
+    private final List<Graph> open = new ArrayList<>();
+    private float[] heuristics = new float[64];
     private final Tree tree;
-    private boolean running;
+    private final SearchFailure failure = new SearchFailure();
+    private volatile boolean running = true;
 
     public Worker(Tree tree) {
         this.tree = tree;
@@ -27,43 +35,68 @@ public class Worker implements Runnable {
      *                              the next graph to become available.
      */
     public void step() throws InterruptedException {
-        var env = tree.getEnvironment();
+        var space = tree.getSearchSpace();
 
-        var next = tree.nextGraph();
-        next.getChildGraphs(buffer, env);
+        var next = tree.beginExpansion();
+        try {
+            next.getMoves(moves, space);
+            space.getValidChildGraphs(next, moves, buffer);
 
-        for (var graph : buffer) {
-            if (!env.isValid(graph))
-                continue;
+            for (var graph : buffer) {
+                if (!tree.markVisited(graph))
+                    continue;
 
-            if (graph.isComplete()) {
-                var f = env.getFitness(graph);
-                tree.putSolution(graph, f);
-            } else {
-                var h = env.getHeuristic(graph);
-                tree.putGraph(graph, h);
+                if (graph.isComplete()) {
+                    var f = space.getFitness(graph);
+                    tree.putSolution(graph, f);
+                } else {
+                    open.add(graph);
+                }
             }
-        }
 
-        buffer.clear();
+            if (heuristics.length < open.size())
+                heuristics = new float[Math.max(open.size(), heuristics.length * 2)];
+
+            space.getHeuristics(open, heuristics);
+            for (var i = 0; i < open.size(); i++)
+                tree.putGraph(open.get(i), heuristics[i]);
+        } finally {
+            moves.clear();
+            buffer.clear();
+            open.clear();
+            tree.endExpansion();
+        }
     }
 
     /**
      * Will begin running the {@link #step()} function repeatedly until this object
-     * is stopped.
+     * is stopped or the thread is interrupted.
      */
     @Override
     public void run() {
-        running = true;
         while (running) {
             try {
                 step();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failure.record(e);
             }
         }
     }
 
+    /**
+     * Gets the first exception that was thrown while this worker was running.
+     * Later exceptions are added to it as suppressed exceptions. Exceptions
+     * thrown by calling {@link #step()} directly are not recorded.
+     * 
+     * @return The first failure, or null if no graph has failed.
+     */
+    public RuntimeException getFailure() {
+        return failure.get();
+    }
+
     /**
      * Will cause the thread to stop looping after it finishes it's next graph. This
      * function does not interrupt the thread.
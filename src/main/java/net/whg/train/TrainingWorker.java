@@ -8,6 +8,7 @@ import java.util.Random;
 import net.whg.graph.Graph;
 import net.whg.solver.Environment;
 import net.whg.solver.GraphResult;
+import net.whg.solver.SearchSpace;
 
 public class TrainingWorker {
     private final PriorityQueue<GraphTrainingResult> tree = new PriorityQueue<>();
@@ -18,32 +19,31 @@ public class TrainingWorker {
     private final List<Graph> graphBuffer = new ArrayList<>();
     private final List<Float> heuristicBuffer = new ArrayList<>();
 
-    private final Environment problemEnv;
-    private final Environment solutionEnv;
+    private final SearchSpace problemSpace;
+    private final SearchSpace solutionSpace;
     private final HeuristicProvider heuristicProvider;
     private final int iterations;
     private final float randomHeuristicStd;
 
     public TrainingWorker(Environment problemEnv, Environment solutionEnv, HeuristicProvider heuristicProvider,
             int iterations, float randomHeuristicStd) {
-        this.problemEnv = problemEnv;
-        this.solutionEnv = solutionEnv;
+        this.problemSpace = problemEnv.compile();
+        this.solutionSpace = solutionEnv.compile();
         this.heuristicProvider = heuristicProvider;
         this.iterations = iterations;
         this.randomHeuristicStd = randomHeuristicStd;
     }
 
-    private Graph randomGraph(Environment env, boolean complete) {
+    private Graph randomGraph(SearchSpace space, boolean complete) {
         Graph graph = null;
 
         tryGenGraph: while (true) {
             var depth = random.nextInt(5) + 2;
 
-            graph = new Graph("Temp", env.getInputNodeType(), env.getOutputNodeType());
+            graph = new Graph("Temp", space.getInputNodeType(), space.getOutputNodeType());
 
             for (var i = 0; i < depth; i++) {
-                graph.getChildGraphs(graphBuffer, env);
-                graphBuffer.removeIf(g -> !env.isValid(g));
+                space.getValidChildGraphs(graph, graphBuffer);
 
                 if (graphBuffer.isEmpty())
                     continue tryGenGraph;
@@ -60,8 +60,8 @@ public class TrainingWorker {
     }
 
     public void step() {
-        var problem = randomGraph(problemEnv, true);
-        var state = randomGraph(solutionEnv, false);
+        var problem = randomGraph(problemSpace, true);
+        var state = randomGraph(solutionSpace, false);
 
         prewarmFirstGeneration(problem, state);
 
@@ -78,7 +78,7 @@ public class TrainingWorker {
     }
 
     private void prewarmFirstGeneration(Graph problem, Graph state) {
-        state.getChildGraphs(firstGeneration, solutionEnv);
+        state.getChildGraphs(firstGeneration, solutionSpace);
         heuristicProvider.getHeuristics(problem, state, firstGeneration, heuristicBuffer);
 
         for (var i = 0; i < firstGeneration.size(); i++) {
@@ -132,8 +132,7 @@ public class TrainingWorker {
         var graph = node.graph();
         var parentIndex = node.parentIndex();
 
-        graph.getChildGraphs(graphBuffer, solutionEnv);
-        graphBuffer.removeIf(g -> !solutionEnv.isValid(g));
+        solutionSpace.getValidChildGraphs(graph, graphBuffer);
 
         graphBuffer.removeIf(g -> {
             if (g.isComplete()) {
@@ -0,0 +1,60 @@
+package net.whg.util;
+
+/**
+ * A small set of utility functions for building 64-bit hashes out of a
+ * sequence of values. These hashes are not cryptographically secure, but are
+ * well distributed and cheap to compute.
+ */
+public final class Hashing {
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    private Hashing() {
+    }
+
+    /**
+     * Gets the initial hash value to start a new sequence with.
+     * 
+     * @return The initial hash value.
+     */
+    public static long start() {
+        return SEED;
+    }
+
+    /**
+     * Mixes a new value into an existing hash.
+     * 
+     * @param hash  - The current hash value.
+     * @param value - The value to add.
+     * @return The new hash value.
+     */
+    public static long mix(long hash, long value) {
+        return finish(hash ^ (value + SEED + (hash << 6) + (hash >>> 2)));
+    }
+
+    /**
+     * Scrambles the bits of a hash value. This is the finalizer of the SplitMix64
+     * generator.
+     * 
+     * @param hash - The hash value to scramble.
+     * @return The scrambled hash value.
+     */
+    public static long finish(long hash) {
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Creates a 64-bit hash of a string.
+     * 
+     * @param value - The string to hash.
+     * @return The hash value.
+     */
+    public static long of(String value) {
+        var hash = start();
+        for (var i = 0; i < value.length(); i++)
+            hash = mix(hash, value.charAt(i));
+
+        return hash;
+    }
+}